@@ -0,0 +1,34 @@
+package demo.batchcheatsheet;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD {@link BatchCheatSheetApplication.UpperCaseKernel}: one vector of bytes per step, lowercase
+ * letters found with a single unsigned compare ((b - 'a') < 26) and shifted by 32 under that mask.
+ * Compiled only by the 'vector' Maven profile and picked up only when the JVM runs with
+ * --add-modules jdk.incubator.vector; otherwise the scalar kernel is used.
+ */
+public final class VectorUpperCaseKernel implements BatchCheatSheetApplication.UpperCaseKernel {
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  @Override public boolean upperCaseAscii(byte[] buf, int from, int to) {
+    VectorMask<Byte> nonAscii = SPECIES.maskAll(false);
+    int i = from;
+    for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+      nonAscii = nonAscii.or(v.lt((byte) 0));
+      VectorMask<Byte> lower = v.sub((byte) 'a').compare(VectorOperators.UNSIGNED_LT, (byte) 26);
+      v.sub((byte) 32, lower).intoArray(buf, i);
+    }
+    boolean ascii = !nonAscii.anyTrue();
+    for (; i < to; i++) {
+      byte b = buf[i];
+      if (b < 0) ascii = false;
+      else if (b >= 'a' && b <= 'z') buf[i] = (byte) (b - 32);
+    }
+    return ascii;
+  }
+}
@@ -3,13 +3,25 @@ package demo.batchcheatsheet;
 import org.springframework.batch.core.*;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
 import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.core.partition.support.TaskExecutorPartitionHandler;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.core.step.builder.FaultTolerantStepBuilder;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
 import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.builder.TaskletStepBuilder;
 import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.item.*;
 import org.springframework.batch.item.support.ListItemReader;
+import org.springframework.batch.repeat.CompletionPolicy;
+import org.springframework.batch.repeat.RepeatContext;
 import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+import org.springframework.batch.repeat.support.RepeatSynchronizationManager;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -18,19 +30,77 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.*;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Profile;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.ResourcelessTransactionManager;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
 
 /**
  * Spring Boot + Spring Batch single-file cheat sheet.
@@ -51,9 +121,88 @@ import java.util.*;
  *   # DEV profile (uses in-memory list reader)
  *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks skipUppercase=true app.sleep-millis=0
  *
+ *   # DEV profile load test: 100M reproducible synthetic lines, 10% with non-ASCII characters
+ *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks \
+ *       --app.gen-items=100000000 --app.gen-seed=7 --app.gen-length-skew=3 --app.gen-non-ascii-ratio=0.1
+ *
+ *   # Chunk-level SIMD uppercasing: build with 'mvn -Pvector package', then enable the incubator module
+ *   java --add-modules jdk.incubator.vector -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks \
+ *       --app.gen-items=10000000 --app.processor-mode=chunk
+ *   # ... and compare it with per-item and scalar uppercasing (JMH, src/test/java)
+ *   mvn -Pvector,jmh test-compile exec:exec
+ *
+ *   # Slow (10 ms) lookups per item, awaited concurrently on virtual threads, at most 2000 in flight
+ *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks --app.gen-items=100000 \
+ *       --app.lookup-latency-millis=10 --app.processor-mode=async --app.chunk-size=1000 --app.async-max-in-flight=2000
+ *
  *   # PROD profile (reads from file via job param 'path')
  *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/lines.txt app.enable-second-step=true
  *
+ *   # PROD profile, readLine() reader (compare the "reader" throughput log line with the default app.reader-mode=mapped)
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt --app.processing-mode=partitioned --app.grid-size=1 --app.reader-mode=buffered
+ *
+ *   # PROD profile, partition workers with background read-ahead overlapping disk reads and processing
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt \
+ *       --app.processing-mode=partitioned --app.reader-mode=read-ahead --app.read-ahead-depth=8
+ *
+ *   # Chunk size tuned at runtime: grows while throughput improves, halves over 500 ms per chunk or 70% heap
+ *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks --app.gen-items=10000000 \
+ *       --app.chunk-adaptive=true --app.chunk-target-millis=500 --app.chunk-max-heap-ratio=0.7
+ *
+ *   # Concurrent chunks found at runtime: +1 while chunks finish within 200 ms, halved when one does not
+ *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks --app.gen-items=1000000 \
+ *       --app.executor=virtual --app.executor-threads=64 --app.concurrency-slo-millis=200
+ *
+ *   # Parallel chunks, output still in input order (reorder buffer of at most 50k lines)
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt \
+ *       --app.ordered=true --app.reorder-capacity=50000
+ *
+ *   # Read, process and write overlapped on their own threads (6 processors, queues of 32 chunks, "pipeline" summary)
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt \
+ *       --app.processing-mode=pipelined --app.pipeline-process-threads=6 --app.pipeline-queue-capacity=32
+ *
+ *   # Chunks on a bounded pool of 8 platform threads (executor.queued / executor.active gauges, summary at exit)
+ *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks --app.gen-items=1000000 \
+ *       --app.executor=bounded --app.executor-threads=8
+ *
+ *   # PROD profile, one worker step per line-aligned byte range (grid size defaults to the core count)
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt --app.processing-mode=partitioned
+ *
+ *   # PROD profile, index the file once (big.txt.lidx), then plan partitions and progress from the index;
+ *   # fromLine=N starts at line N (0-based) without scanning. The index is rebuilt when the file changes.
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt fromLine=1000000 \
+ *       --app.processing-mode=partitioned --app.line-index=true
+ *
+ *   # PROD profile, a directory or glob: one partition per file, largest files started first
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World 'path=/data/drop/*.gz' --app.processing-mode=partitioned
+ *
+ *   # PROD profile, follow a growing log file; chunks commit as lines arrive, the step ends after 60 s idle
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/var/log/app.log \
+ *       --app.reader-mode=follow --app.follow-idle-timeout-millis=60000
+ *
+ *   # PROD profile, lines to a file instead of the log: one FileChannel write per chunk, forced at most once a second
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt output=/tmp/out.txt \
+ *       --app.sink=file --app.sink-flush=time --app.sink-flush-interval-millis=1000
+ *
+ *   # Model a slow downstream: 20 ms per chunk write, capped at 5000 lines/s and 2 MB/s, chunk threads parked (virtual)
+ *   java -jar app.jar --spring.profiles.active=dev --job.name=demoJob name=Aleks --app.gen-items=100000 --app.executor=virtual \
+ *       --app.sink-latency-millis=20 --app.sink-max-items-per-second=5000 --app.sink-max-bytes-per-second=2000000
+ *
+ *   # Writes off the chunk threads: a ring of 4096 chunks drained by one I/O thread, commits wait for the fsync
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt output=/tmp/out.txt \
+ *       --app.sink=file --app.sink-async=true --app.sink-durability=synced --app.sink-ring-slots=4096
+ *
+ *   # PROD profile, partition workers each write a part file (no shared file); mergeOutput joins them with transferTo
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt output=/tmp/out.txt \
+ *       --app.processing-mode=partitioned --app.sink=file
+ *
+ *   # Gzipped output compressed on all cores in 1 MB blocks (multi-member .gz, like pigz); big chunks or the async sink
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/big.txt output=/tmp/out.txt.gz \
+ *       --app.sink=file --app.sink-gzip=true --app.sink-gzip-level=6 --app.sink-gzip-block-bytes=1048576 --app.sink-async=true
+ *
+ *   # PROD profile, compressed input (.gz/.bz2/.xz detected by content; multi-member gzip inflated on all cores)
+ *   java -jar app.jar --spring.profiles.active=prod --job.name=demoJob name=World path=/tmp/lines.txt.gz
+ *
  * Notes:
  *  - In Spring Batch, the special --job.name=<jobId> activates JobLauncherApplicationRunner.
  *  - Additional job parameters come after the boot args as key=value (no leading dashes).
@@ -90,18 +239,268 @@ public class BatchCheatSheetApplication {
   public static class AppProps {
     /** if true, skip uppercasing in chunk step */
     private boolean skipUppercase = false;
-    /** optional artificial delay per item (ms) */
+    /** optional artificial downstream delay per item (ms), simulated once per chunk by the writer */
     private long sleepMillis = 0;
     /** toggles second step via @ConditionalOnProperty alternative */
     private boolean enableSecondStep = false; // also controllable via property
+    /**
+     * how the prod profile reads the 'path' file: BUFFERED (readLine), MAPPED (mmap), READ_AHEAD or FOLLOW.
+     * MAPPED by default: it restarts from the saved byte offset, while BUFFERED re-reads the committed lines.
+     */
+    private ReaderMode readerMode = ReaderMode.MAPPED;
+    /** how processData runs: one multi-threaded chunk step, one worker step per input partition, or a pipeline */
+    private ProcessingMode processingMode = ProcessingMode.MULTI_THREADED;
+    /** partitions of a single file, and concurrent workers, in PARTITIONED mode; 0 = available cores */
+    private int gridSize = 0;
+    /** executor running chunks in MULTI_THREADED mode: SIMPLE, VIRTUAL, BOUNDED or FORK_JOIN */
+    private ExecutorKind executor = ExecutorKind.SIMPLE;
+    /** concurrent chunks (executor threads) in MULTI_THREADED mode; 0 = available cores (VIRTUAL: 16 x cores) */
+    private int executorThreads = 0;
+    /** BOUNDED executor: chunks queued before the submitting thread runs one itself; 0 = 2 x threads */
+    private int executorQueueCapacity = 0;
+    /** MULTI_THREADED mode: write lines in input order through a reorder buffer (needs processor-mode ITEM) */
+    private boolean ordered = false;
+    /** ordered mode: lines the reorder buffer may hold ahead of the oldest unwritten one */
+    private int reorderCapacity = 10_000;
+    /** latency SLO of one chunk; > 0 adapts concurrent chunks (AIMD) between concurrency-min-limit and executor-threads */
+    private long concurrencySloMillis = 0;
+    /** adaptive concurrency: starting and lowest number of concurrent chunks */
+    private int concurrencyMinLimit = 1;
+    /** adaptive concurrency: factor the limit is multiplied by on a slow or failed chunk */
+    private double concurrencyBackoff = 0.5;
+    /** PIPELINED mode: processor threads between the reader thread and the writing step thread; 0 = available cores */
+    private int pipelineProcessThreads = 0;
+    /** PIPELINED mode: chunks each of the two queues holds before the stage feeding it blocks */
+    private int pipelineQueueCapacity = 16;
+    /** bytes of input a chunk thread claims at once in MULTI_THREADED mode */
+    private int claimBlockBytes = 1 << 20;
+    /** threads inflating multi-member gzip input; 1 = plain GZIPInputStream, 0 = available cores */
+    private int decompressThreads = 0;
+    /** READ_AHEAD mode: buffers kept filled by the background I/O thread */
+    private int readAheadDepth = 4;
+    /** READ_AHEAD mode: size of each read-ahead buffer */
+    private int readAheadBufferBytes = 1 << 20;
+    /** FOLLOW mode: end the step after this long without new data */
+    private long followIdleTimeoutMillis = 30_000;
+    /** FOLLOW mode: end the step after this many lines; 0 = no limit */
+    private long followMaxItems = 0;
+    /** FOLLOW mode: longest wait between checks for new data (backoff cap) */
+    private long followPollMaxMillis = 1_000;
+    /** prod: run a buildLineIndex step that writes (or refreshes) a sidecar line index next to each input file */
+    private boolean lineIndex = false;
+    /** lines between two offsets recorded in the line index */
+    private int lineIndexInterval = 1024;
+    /** how processData calls the processor: per item (ITEM), per chunk (CHUNK) or per item on virtual threads (ASYNC) */
+    private ProcessorMode processorMode = ProcessorMode.ITEM;
+    /** items per chunk (transaction) of processData; the starting size when chunk-adaptive */
+    private int chunkSize = 3;
+    /** resize processData chunks at runtime, within chunk-min-size..chunk-max-size */
+    private boolean chunkAdaptive = false;
+    /** adaptive chunks: smallest size */
+    private int chunkMinSize = 1;
+    /** adaptive chunks: largest size */
+    private int chunkMaxSize = 10_000;
+    /** adaptive chunks: halve the size when a chunk, commit included, takes longer than this */
+    private long chunkTargetMillis = 1_000;
+    /** adaptive chunks: halve the size when used heap exceeds this fraction of the max heap */
+    private double chunkMaxHeapRatio = 0.8;
+    /** simulated round trip of the processor's lookup service: once per item, or once per chunk in CHUNK mode */
+    private long lookupLatencyMillis = 0;
+    /** ASYNC mode: most items being processed at once, over all chunk threads */
+    private int asyncMaxInFlight = 1024;
+    /** dev: number of synthetic lines to generate; 0 = the small fixed list */
+    private long genItems = 0;
+    /** dev: seed of the generator; the same seed gives the same lines */
+    private long genSeed = 42;
+    /** dev: shortest generated line (chars) */
+    private int genMinLength = 8;
+    /** dev: longest generated line (chars) */
+    private int genMaxLength = 120;
+    /** dev: length skew; 1 = uniform, larger values favour short lines with a long tail */
+    private double genLengthSkew = 1.0;
+    /** dev: ASCII characters lines are drawn from */
+    private String genAlphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    /** dev: fraction of lines that also contain non-ASCII characters */
+    private double genNonAsciiRatio = 0.0;
+    /** where processData writes: LOG (one log line per item) or FILE (job parameter 'output'); set per profile as needed */
+    private Sink sink = Sink.LOG;
+    /** FILE sink: when written bytes are forced to disk: every CHUNK, after an interval (TIME) or an amount (SIZE) */
+    private SinkFlush sinkFlush = SinkFlush.CHUNK;
+    /** FILE sink, TIME flush: longest time written bytes stay unforced */
+    private long sinkFlushIntervalMillis = 1_000;
+    /** FILE sink, SIZE flush: most bytes written but not yet forced */
+    private long sinkFlushBytes = 64L << 20;
+    /** FILE sink: direct buffer a chunk is encoded into before its write */
+    private int sinkBufferBytes = 1 << 20;
+    /** simulated downstream latency of one chunk write (ms), on top of sleep-millis per item */
+    private long sinkLatencyMillis = 0;
+    /** most items written per second, one second's worth in a burst; 0 = unlimited */
+    private long sinkMaxItemsPerSecond = 0;
+    /** most bytes (lines plus newlines) written per second, one second's worth in a burst; 0 = unlimited */
+    private long sinkMaxBytesPerSecond = 0;
+    /** hand chunks to a ring buffer drained by a dedicated I/O thread instead of writing on the chunk thread */
+    private boolean sinkAsync = false;
+    /** async sink: what a chunk write waits for: QUEUED in the ring, WRITTEN by the I/O thread, or SYNCED to disk */
+    private Durability sinkDurability = Durability.WRITTEN;
+    /** async sink: chunks the ring buffer holds (rounded up to a power of two) */
+    private int sinkRingSlots = 1024;
+    /** FILE sink: gzip the output in independent blocks compressed in parallel (a multi-member gzip file) */
+    private boolean sinkGzip = false;
+    /** gzip sink: deflate level, 1 (fastest) to 9 (smallest) */
+    private int sinkGzipLevel = 6;
+    /** gzip sink: uncompressed bytes per block, i.e. per gzip member */
+    private int sinkGzipBlockBytes = 1 << 20;
+    /** gzip sink: compressing threads; 0 = available cores */
+    private int sinkGzipThreads = 0;
     public boolean isSkipUppercase() { return skipUppercase; }
     public void setSkipUppercase(boolean skipUppercase) { this.skipUppercase = skipUppercase; }
     public long getSleepMillis() { return sleepMillis; }
     public void setSleepMillis(long sleepMillis) { this.sleepMillis = sleepMillis; }
     public boolean isEnableSecondStep() { return enableSecondStep; }
     public void setEnableSecondStep(boolean enableSecondStep) { this.enableSecondStep = enableSecondStep; }
+    public ReaderMode getReaderMode() { return readerMode; }
+    public void setReaderMode(ReaderMode readerMode) { this.readerMode = readerMode; }
+    public ProcessingMode getProcessingMode() { return processingMode; }
+    public void setProcessingMode(ProcessingMode processingMode) { this.processingMode = processingMode; }
+    public int getGridSize() { return gridSize > 0 ? gridSize : Runtime.getRuntime().availableProcessors(); }
+    public void setGridSize(int gridSize) { this.gridSize = gridSize; }
+    public ExecutorKind getExecutor() { return executor; }
+    public void setExecutor(ExecutorKind executor) { this.executor = executor; }
+    public int getExecutorThreads() {
+      if (executorThreads > 0) return executorThreads;
+      int cores = Runtime.getRuntime().availableProcessors();
+      return executor == ExecutorKind.VIRTUAL ? 16 * cores : cores;
+    }
+    public void setExecutorThreads(int executorThreads) { this.executorThreads = executorThreads; }
+    public int getExecutorQueueCapacity() { return executorQueueCapacity > 0 ? executorQueueCapacity : 2 * getExecutorThreads(); }
+    public void setExecutorQueueCapacity(int executorQueueCapacity) { this.executorQueueCapacity = executorQueueCapacity; }
+    public boolean isOrdered() { return ordered; }
+    public void setOrdered(boolean ordered) { this.ordered = ordered; }
+    public int getReorderCapacity() { return reorderCapacity; }
+    public void setReorderCapacity(int reorderCapacity) { this.reorderCapacity = reorderCapacity; }
+    public long getConcurrencySloMillis() { return concurrencySloMillis; }
+    public void setConcurrencySloMillis(long concurrencySloMillis) { this.concurrencySloMillis = concurrencySloMillis; }
+    public int getConcurrencyMinLimit() { return concurrencyMinLimit; }
+    public void setConcurrencyMinLimit(int concurrencyMinLimit) { this.concurrencyMinLimit = concurrencyMinLimit; }
+    public double getConcurrencyBackoff() { return concurrencyBackoff; }
+    public void setConcurrencyBackoff(double concurrencyBackoff) { this.concurrencyBackoff = concurrencyBackoff; }
+    public int getPipelineProcessThreads() {
+      return pipelineProcessThreads > 0 ? pipelineProcessThreads : Runtime.getRuntime().availableProcessors();
+    }
+    public void setPipelineProcessThreads(int pipelineProcessThreads) { this.pipelineProcessThreads = pipelineProcessThreads; }
+    public int getPipelineQueueCapacity() { return pipelineQueueCapacity; }
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) { this.pipelineQueueCapacity = pipelineQueueCapacity; }
+    public int getClaimBlockBytes() { return claimBlockBytes; }
+    public void setClaimBlockBytes(int claimBlockBytes) { this.claimBlockBytes = claimBlockBytes; }
+    public int getDecompressThreads() { return decompressThreads > 0 ? decompressThreads : Runtime.getRuntime().availableProcessors(); }
+    public void setDecompressThreads(int decompressThreads) { this.decompressThreads = decompressThreads; }
+    public int getReadAheadDepth() { return readAheadDepth; }
+    public void setReadAheadDepth(int readAheadDepth) { this.readAheadDepth = readAheadDepth; }
+    public int getReadAheadBufferBytes() { return readAheadBufferBytes; }
+    public void setReadAheadBufferBytes(int readAheadBufferBytes) { this.readAheadBufferBytes = readAheadBufferBytes; }
+    public long getFollowIdleTimeoutMillis() { return followIdleTimeoutMillis; }
+    public void setFollowIdleTimeoutMillis(long followIdleTimeoutMillis) { this.followIdleTimeoutMillis = followIdleTimeoutMillis; }
+    public long getFollowMaxItems() { return followMaxItems; }
+    public void setFollowMaxItems(long followMaxItems) { this.followMaxItems = followMaxItems; }
+    public long getFollowPollMaxMillis() { return followPollMaxMillis; }
+    public void setFollowPollMaxMillis(long followPollMaxMillis) { this.followPollMaxMillis = followPollMaxMillis; }
+    public boolean isLineIndex() { return lineIndex; }
+    public void setLineIndex(boolean lineIndex) { this.lineIndex = lineIndex; }
+    public int getLineIndexInterval() { return lineIndexInterval; }
+    public void setLineIndexInterval(int lineIndexInterval) { this.lineIndexInterval = lineIndexInterval; }
+    public ProcessorMode getProcessorMode() { return processorMode; }
+    public void setProcessorMode(ProcessorMode processorMode) { this.processorMode = processorMode; }
+    public int getChunkSize() { return chunkSize; }
+    public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
+    public boolean isChunkAdaptive() { return chunkAdaptive; }
+    public void setChunkAdaptive(boolean chunkAdaptive) { this.chunkAdaptive = chunkAdaptive; }
+    public int getChunkMinSize() { return chunkMinSize; }
+    public void setChunkMinSize(int chunkMinSize) { this.chunkMinSize = chunkMinSize; }
+    public int getChunkMaxSize() { return chunkMaxSize; }
+    public void setChunkMaxSize(int chunkMaxSize) { this.chunkMaxSize = chunkMaxSize; }
+    public long getChunkTargetMillis() { return chunkTargetMillis; }
+    public void setChunkTargetMillis(long chunkTargetMillis) { this.chunkTargetMillis = chunkTargetMillis; }
+    public double getChunkMaxHeapRatio() { return chunkMaxHeapRatio; }
+    public void setChunkMaxHeapRatio(double chunkMaxHeapRatio) { this.chunkMaxHeapRatio = chunkMaxHeapRatio; }
+    public long getLookupLatencyMillis() { return lookupLatencyMillis; }
+    public void setLookupLatencyMillis(long lookupLatencyMillis) { this.lookupLatencyMillis = lookupLatencyMillis; }
+    public int getAsyncMaxInFlight() { return asyncMaxInFlight; }
+    public void setAsyncMaxInFlight(int asyncMaxInFlight) { this.asyncMaxInFlight = asyncMaxInFlight; }
+    public long getGenItems() { return genItems; }
+    public void setGenItems(long genItems) { this.genItems = genItems; }
+    public long getGenSeed() { return genSeed; }
+    public void setGenSeed(long genSeed) { this.genSeed = genSeed; }
+    public int getGenMinLength() { return genMinLength; }
+    public void setGenMinLength(int genMinLength) { this.genMinLength = genMinLength; }
+    public int getGenMaxLength() { return genMaxLength; }
+    public void setGenMaxLength(int genMaxLength) { this.genMaxLength = genMaxLength; }
+    public double getGenLengthSkew() { return genLengthSkew; }
+    public void setGenLengthSkew(double genLengthSkew) { this.genLengthSkew = genLengthSkew; }
+    public String getGenAlphabet() { return genAlphabet; }
+    public void setGenAlphabet(String genAlphabet) { this.genAlphabet = genAlphabet; }
+    public double getGenNonAsciiRatio() { return genNonAsciiRatio; }
+    public void setGenNonAsciiRatio(double genNonAsciiRatio) { this.genNonAsciiRatio = genNonAsciiRatio; }
+    public Sink getSink() { return sink; }
+    public void setSink(Sink sink) { this.sink = sink; }
+    public SinkFlush getSinkFlush() { return sinkFlush; }
+    public void setSinkFlush(SinkFlush sinkFlush) { this.sinkFlush = sinkFlush; }
+    public long getSinkFlushIntervalMillis() { return sinkFlushIntervalMillis; }
+    public void setSinkFlushIntervalMillis(long sinkFlushIntervalMillis) { this.sinkFlushIntervalMillis = sinkFlushIntervalMillis; }
+    public long getSinkFlushBytes() { return sinkFlushBytes; }
+    public void setSinkFlushBytes(long sinkFlushBytes) { this.sinkFlushBytes = sinkFlushBytes; }
+    public int getSinkBufferBytes() { return sinkBufferBytes; }
+    public void setSinkBufferBytes(int sinkBufferBytes) { this.sinkBufferBytes = sinkBufferBytes; }
+    public long getSinkLatencyMillis() { return sinkLatencyMillis; }
+    public void setSinkLatencyMillis(long sinkLatencyMillis) { this.sinkLatencyMillis = sinkLatencyMillis; }
+    public long getSinkMaxItemsPerSecond() { return sinkMaxItemsPerSecond; }
+    public void setSinkMaxItemsPerSecond(long sinkMaxItemsPerSecond) { this.sinkMaxItemsPerSecond = sinkMaxItemsPerSecond; }
+    public long getSinkMaxBytesPerSecond() { return sinkMaxBytesPerSecond; }
+    public void setSinkMaxBytesPerSecond(long sinkMaxBytesPerSecond) { this.sinkMaxBytesPerSecond = sinkMaxBytesPerSecond; }
+    public boolean isSinkAsync() { return sinkAsync; }
+    public void setSinkAsync(boolean sinkAsync) { this.sinkAsync = sinkAsync; }
+    public Durability getSinkDurability() { return sinkDurability; }
+    public void setSinkDurability(Durability sinkDurability) { this.sinkDurability = sinkDurability; }
+    public int getSinkRingSlots() { return sinkRingSlots; }
+    public void setSinkRingSlots(int sinkRingSlots) { this.sinkRingSlots = sinkRingSlots; }
+    public boolean isSinkGzip() { return sinkGzip; }
+    public void setSinkGzip(boolean sinkGzip) { this.sinkGzip = sinkGzip; }
+    public int getSinkGzipLevel() { return sinkGzipLevel; }
+    public void setSinkGzipLevel(int sinkGzipLevel) { this.sinkGzipLevel = sinkGzipLevel; }
+    public int getSinkGzipBlockBytes() { return sinkGzipBlockBytes; }
+    public void setSinkGzipBlockBytes(int sinkGzipBlockBytes) { this.sinkGzipBlockBytes = sinkGzipBlockBytes; }
+    public int getSinkGzipThreads() { return sinkGzipThreads > 0 ? sinkGzipThreads : Runtime.getRuntime().availableProcessors(); }
+    public void setSinkGzipThreads(int sinkGzipThreads) { this.sinkGzipThreads = sinkGzipThreads; }
   }
 
+  /** Line reader implementations for the prod profile (app.reader-mode=buffered|mapped|read-ahead|follow). */
+  public enum ReaderMode { BUFFERED, MAPPED, READ_AHEAD, FOLLOW }
+
+  /**
+   * Shape of the processData step (app.processing-mode=multi-threaded|partitioned|pipelined).
+   * A directory or glob 'path' needs PARTITIONED: each matching file becomes one partition.
+   * PIPELINED overlaps reading, processing and writing on separate threads ({@link PipelinedTasklet}).
+   */
+  public enum ProcessingMode { MULTI_THREADED, PARTITIONED, PIPELINED }
+
+  /**
+   * How processData runs the processor (app.processor-mode=item|chunk|async): as the step's ItemProcessor,
+   * or in the writer position once per chunk ({@link BatchItemProcessor}) or per item on virtual threads
+   * ({@link AsyncBatchItemProcessor}).
+   */
+  public enum ProcessorMode { ITEM, CHUNK, ASYNC }
+
+  /** Executor strategies for the multi-threaded processData step (app.executor=simple|virtual|bounded|fork-join). */
+  public enum ExecutorKind { SIMPLE, VIRTUAL, BOUNDED, FORK_JOIN }
+
+  /** Output of processData (app.sink=log|file): the loggingWriter or the {@link ChannelFileWriter}. */
+  public enum Sink { LOG, FILE }
+
+  /** When the FILE sink forces written bytes to disk (app.sink-flush=chunk|time|size); closing always does. */
+  public enum SinkFlush { CHUNK, TIME, SIZE }
+
+  /** What a chunk write waits for with app.sink-async=true (app.sink-durability=queued|written|synced). */
+  public enum Durability { QUEUED, WRITTEN, SYNCED }
+
   /* ========================= Services & Components ========================= */
   /** A simple business service (stateless). */
   @Service
@@ -109,27 +508,303 @@ public class BatchCheatSheetApplication {
     public String greet(String name) { return "Hello, " + name + "!"; }
   }
 
-  /** A reusable processor bean. Demonstrates @Component. */
+  /**
+   * A line of input kept as its raw UTF-8 bytes; the String is decoded (once) only when a stage asks
+   * for it, and pure-ASCII lines skip the charset decoder. Lines made from a String keep it and are
+   * encoded only if a stage asks for the bytes.
+   */
+  public static final class Line {
+    private byte[] bytes;
+    private String text;
+    private byte ascii; // 0 = not yet known, 1 = ASCII, -1 = not ASCII
+    private long seq = -1; // position in the input, set by SequencingLineReader in ordered mode
+    public Line(byte[] bytes) { this.bytes = bytes; }
+    private Line(String text) { this.text = text; }
+    public static Line of(String text) { return new Line(text); }
+    public byte[] bytes() {
+      if (bytes == null) bytes = text.getBytes(StandardCharsets.UTF_8);
+      return bytes;
+    }
+    public boolean isAscii() {
+      if (ascii == 0) {
+        ascii = 1;
+        for (byte b : bytes()) if (b < 0) { ascii = -1; break; }
+      }
+      return ascii > 0;
+    }
+    @Override public String toString() {
+      if (text == null) text = new String(bytes, isAscii() ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+      return text;
+    }
+  }
+
+  /**
+   * Chunk-at-a-time processing contract: one call per chunk instead of one per item, so an implementation
+   * can amortize setup, reuse buffers and vectorize. Items missing from the result are filtered.
+   */
+  @FunctionalInterface
+  public interface BatchItemProcessor<I, O> {
+    Chunk<O> process(Chunk<? extends I> items) throws Exception;
+
+    /** The processor itself if it already works per chunk, else a loop over its per-item process(). */
+    @SuppressWarnings("unchecked")
+    static <I, O> BatchItemProcessor<I, O> of(ItemProcessor<I, O> processor) {
+      if (processor instanceof BatchItemProcessor<?, ?> batch) return (BatchItemProcessor<I, O>) batch;
+      return perItem(processor);
+    }
+
+    /** A loop over the processor's per-item process(), dropping filtered (null) results. */
+    static <I, O> BatchItemProcessor<I, O> perItem(ItemProcessor<I, O> processor) {
+      return items -> {
+        Chunk<O> out = new Chunk<>();
+        for (I item : items) {
+          O result = processor.process(item);
+          if (result != null) out.add(result);
+        }
+        return out;
+      };
+    }
+  }
+
+  /**
+   * Runs a {@link BatchItemProcessor} in the writer position: each chunk is processed in one call and the
+   * result handed to the delegate writer, whose stream callbacks it passes on. After a write failure the
+   * step rescans the chunk item by item through this writer, so the processor must be safe to re-run on an item.
+   */
+  public static class BatchProcessingWriter<I, O> implements ItemStreamWriter<I> {
+    private final BatchItemProcessor<I, O> processor;
+    private final ItemWriter<? super O> delegate;
+    public BatchProcessingWriter(BatchItemProcessor<I, O> processor, ItemWriter<? super O> delegate) {
+      this.processor = processor; this.delegate = delegate;
+    }
+    @Override public void write(Chunk<? extends I> chunk) throws Exception {
+      Chunk<O> out = processor.process(chunk);
+      if (!out.isEmpty()) delegate.write(out);
+    }
+    @Override public void open(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.open(ctx); }
+    @Override public void update(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.update(ctx); }
+    @Override public void close() { if (delegate instanceof ItemStream s) s.close(); }
+  }
+
+  /**
+   * Runs each item of a chunk through an ItemProcessor on its own virtual thread, so slow lookups are
+   * awaited concurrently instead of one after another (cf. AsyncItemProcessor + AsyncItemWriter).
+   * Results keep chunk order and null results are filtered. A semaphore shared by all chunk threads
+   * caps the items in flight; the first failure interrupts the rest of the chunk and is rethrown.
+   */
+  public static class AsyncBatchItemProcessor<I, O> implements BatchItemProcessor<I, O> {
+    private final ItemProcessor<I, O> delegate;
+    private final Semaphore inFlight;
+    private final ThreadFactory threads = Thread.ofVirtual().name("process-", 0).factory();
+    public AsyncBatchItemProcessor(ItemProcessor<I, O> delegate, int maxInFlight) {
+      this.delegate = delegate; this.inFlight = new Semaphore(maxInFlight);
+    }
+    @Override public Chunk<O> process(Chunk<? extends I> items) throws Exception {
+      List<CompletableFuture<O>> results = new ArrayList<>(items.size());
+      List<Thread> workers = new ArrayList<>(items.size());
+      try {
+        for (I item : items) {
+          inFlight.acquire();
+          CompletableFuture<O> result = new CompletableFuture<>();
+          // a started thread always runs its finally, so the permit comes back even if interrupted early
+          Thread worker = threads.newThread(() -> {
+            try { result.complete(delegate.process(item)); }
+            catch (Throwable t) { result.completeExceptionally(t); }
+            finally { inFlight.release(); }
+          });
+          worker.start();
+          workers.add(worker);
+          results.add(result);
+        }
+        Chunk<O> out = new Chunk<>();
+        for (CompletableFuture<O> result : results) {
+          O o = result.get();
+          if (o != null) out.add(o);
+        }
+        return out;
+      } catch (ExecutionException e) {
+        workers.forEach(Thread::interrupt);
+        if (e.getCause() instanceof Exception cause) throw cause;
+        throw (Error) e.getCause();
+      } catch (InterruptedException e) {
+        workers.forEach(Thread::interrupt);
+        throw e;
+      }
+    }
+  }
+
+  /** A reusable processor bean. Demonstrates @Component. Works per item or per chunk. */
   @Component
-  public static class UppercaseProcessor implements ItemProcessor<String, String> {
+  public static class UppercaseProcessor implements ItemProcessor<Line, Line>, BatchItemProcessor<Line, Line> {
     @Autowired AppProps props;
-    @Override public String process(String item) throws Exception {
+    @Override public Line process(Line item) throws Exception {
+      if (props.getLookupLatencyMillis() > 0) Thread.sleep(props.getLookupLatencyMillis()); // one lookup per item
       if (props.isSkipUppercase()) return item;
-      return item.toUpperCase(Locale.ROOT);
+      return upperCase(item);
+    }
+    /**
+     * ASCII lines are uppercased byte by byte (copied only if a byte changes); a line with any
+     * non-ASCII byte, or one that only exists as a String, goes through String.toUpperCase(Locale.ROOT).
+     */
+    static Line upperCase(Line line) {
+      if (line.bytes == null) return Line.of(line.text.toUpperCase(Locale.ROOT));
+      byte[] in = line.bytes, out = null;
+      for (int i = 0; i < in.length; i++) {
+        byte b = in[i];
+        if (b < 0) return Line.of(line.toString().toUpperCase(Locale.ROOT));
+        if (b >= 'a' && b <= 'z') {
+          if (out == null) out = in.clone();
+          out[i] = (byte) (b - 32);
+        }
+      }
+      if (out == null) { line.ascii = 1; return line; }
+      Line upper = new Line(out);
+      upper.ascii = 1;
+      return upper;
+    }
+
+    /**
+     * Chunk-level variant: the byte lines of a chunk are packed into one buffer that {@link #KERNEL}
+     * uppercases in a single pass, then cut back into lines. Lines with non-ASCII bytes (or only a
+     * String) take the item path. The buffer is sized to the chunk and allocated per call: the SIMPLE
+     * and VIRTUAL executors start a new thread per chunk, so a per-thread buffer would never be reused.
+     */
+    @Override public Chunk<Line> process(Chunk<? extends Line> items) throws InterruptedException {
+      if (props.getLookupLatencyMillis() > 0) Thread.sleep(props.getLookupLatencyMillis()); // one batched lookup
+      if (props.isSkipUppercase()) return new Chunk<>(items.getItems());
+      int total = 0;
+      for (Line line : items) if (line.bytes != null) total += line.bytes.length;
+      byte[] buf = new byte[total];
+      int pos = 0;
+      for (Line line : items) {
+        if (line.bytes == null) continue;
+        System.arraycopy(line.bytes, 0, buf, pos, line.bytes.length);
+        pos += line.bytes.length;
+      }
+      boolean ascii = KERNEL.upperCaseAscii(buf, 0, total);
+      Chunk<Line> out = new Chunk<>();
+      pos = 0;
+      for (Line line : items) {
+        if (line.bytes == null) { out.add(upperCase(line)); continue; }
+        int n = line.bytes.length;
+        if (ascii || line.isAscii()) {
+          Line upper = new Line(Arrays.copyOfRange(buf, pos, pos + n));
+          upper.ascii = 1;
+          out.add(upper);
+        } else {
+          out.add(upperCase(line));
+        }
+        pos += n;
+      }
+      return out;
+    }
+
+    /** The SIMD kernel when built with -Pvector and run with --add-modules jdk.incubator.vector, else scalar. */
+    static final UpperCaseKernel KERNEL = loadKernel();
+    private static UpperCaseKernel loadKernel() {
+      UpperCaseKernel kernel;
+      try {
+        kernel = (UpperCaseKernel) Class.forName("demo.batchcheatsheet.VectorUpperCaseKernel")
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) { // not compiled in, or module not enabled
+        kernel = new ScalarUpperCaseKernel();
+      }
+      log.info("Chunk uppercase kernel: {}", kernel.getClass().getSimpleName());
+      return kernel;
+    }
+  }
+
+  /** Uppercases ASCII letters of buf[from, to) in place, leaving other bytes alone; true if all bytes were ASCII. */
+  public interface UpperCaseKernel {
+    boolean upperCaseAscii(byte[] buf, int from, int to);
+  }
+
+  /** Byte-at-a-time fallback kernel. */
+  static final class ScalarUpperCaseKernel implements UpperCaseKernel {
+    @Override public boolean upperCaseAscii(byte[] buf, int from, int to) {
+      boolean ascii = true;
+      for (int i = from; i < to; i++) {
+        byte b = buf[i];
+        if (b < 0) ascii = false;
+        else if (b >= 'a' && b <= 'z') buf[i] = (byte) (b - 32);
+      }
+      return ascii;
     }
   }
 
   /* ========================= Readers (with Profiles) ========================= */
-  /** SPI to provide an ItemReader depending on environment. */
-  public interface SourceProvider { ItemReader<String> reader(); }
+  /** SPI to provide an ItemReader (and how its input splits into partitions) depending on environment. */
+  public interface SourceProvider {
+    ItemReader<Line> reader();
+    /** Sources that cannot be split run as a single partition (index 0, so its output is a part file too). */
+    default Partitioner partitioner() {
+      return gridSize -> {
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.putInt("partition", 0);
+        return Map.of("partition0000", ctx);
+      };
+    }
+  }
 
-  /** dev: small in-memory list */
+  /** dev: small in-memory list, or app.gen-items synthetic lines for load testing */
   @Profile("dev")
   @Configuration
   public static class DevSourceConfig {
     @Bean
-    public SourceProvider devSourceProvider() {
-      return () -> new ListItemReader<>(List.of("alpha", "bravo", "charlie"));
+    public SourceProvider devSourceProvider(AppProps props) {
+      if (props.getGenItems() > 0) return () -> new GeneratorItemReader(props);
+      return () -> new ListItemReader<>(List.of(Line.of("alpha"), Line.of("bravo"), Line.of("charlie")));
+    }
+  }
+
+  /**
+   * Generates app.gen-items synthetic lines lazily in constant memory. Line i depends only on the seed
+   * and i, so runs are reproducible whatever the thread count, and threads share the reader through
+   * one AtomicLong. Lengths lie in [min, max], skewed towards short lines by app.gen-length-skew.
+   */
+  public static class GeneratorItemReader implements ItemReader<Line> {
+    private static final String NON_ASCII = "äöüßéèçñøåłžΩπЖж€中文日本語😀";
+    private final AtomicLong next = new AtomicLong();
+    private final long items, seed;
+    private final int minLength, maxLength;
+    private final double skew, nonAsciiRatio;
+    private final byte[] alphabet;
+    private final int[] nonAscii = NON_ASCII.codePoints().toArray();
+    private long startNanos;
+
+    public GeneratorItemReader(AppProps props) {
+      this.items = props.getGenItems(); this.seed = props.getGenSeed();
+      this.minLength = props.getGenMinLength(); this.maxLength = Math.max(props.getGenMinLength(), props.getGenMaxLength());
+      this.skew = props.getGenLengthSkew(); this.nonAsciiRatio = props.getGenNonAsciiRatio();
+      this.alphabet = props.getGenAlphabet().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override public Line read() {
+      long i = next.getAndIncrement();
+      if (i == 0) startNanos = System.nanoTime();
+      if (i >= items) {
+        if (i == items) logThroughput("generator", "seed " + seed, items, -1, startNanos);
+        return null;
+      }
+      return line(i);
+    }
+
+    Line line(long i) {
+      SplittableRandom rnd = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + i);
+      int length = minLength + (int) ((maxLength - minLength + 1) * Math.pow(rnd.nextDouble(), skew));
+      if (length > maxLength) length = maxLength;
+      if (rnd.nextDouble() >= nonAsciiRatio) {
+        byte[] b = new byte[length];
+        for (int k = 0; k < length; k++) b[k] = alphabet[rnd.nextInt(alphabet.length)];
+        return new Line(b);
+      }
+      StringBuilder sb = new StringBuilder(length);
+      int forced = rnd.nextInt(Math.max(1, length));
+      for (int k = 0; k < length; k++) {
+        if (k == forced || rnd.nextInt(8) == 0) sb.appendCodePoint(nonAscii[rnd.nextInt(nonAscii.length)]);
+        else sb.append((char) alphabet[rnd.nextInt(alphabet.length)]);
+      }
+      return new Line(sb.toString().getBytes(StandardCharsets.UTF_8));
     }
   }
 
@@ -139,108 +814,2542 @@ public class BatchCheatSheetApplication {
   public static class ProdSourceConfig {
     /**
      * @StepScope lets us access JobParameters with SpEL.
-     * We return a ListItemReader over the file's lines for simplicity (no FlatFileItemReader setup).
+     * app.reader-mode picks the line reader of each partition worker; all return the same lines as
+     * BufferedReader.readLine(). Workers find their file and byte range in the step ExecutionContext.
+     * Declared as LineReader so the step registers the proxy as a stream (restart checkpoints) and
+     * chunk listener. A multi-threaded step shares one reader, so it gets the block-claiming reader,
+     * which has no meaningful restart position and does not save state. In ordered mode it gets the
+     * (synchronized, sequential) buffered reader instead, so read order is input order.
+     * Compressed input (gzip, bzip2, xz; detected from the magic bytes) is decompressed on the fly
+     * by the streaming reader, which is also the only one that can read it.
+     * Only the line partitioner applies 'fromLine', so outside a partition worker it is refused.
+     */
+    @Bean
+    @StepScope
+    public LineReader fileReader(@Value("#{jobParameters['path']}") String path,
+                                 @Value("#{stepExecutionContext['file']}") String file,
+                                 @Value("#{stepExecutionContext['start']}") Long start,
+                                 @Value("#{stepExecutionContext['end']}") Long end,
+                                 @Value("#{jobParameters['fromLine']}") Long fromLine,
+                                 AppProps props) throws IOException {
+      if (file == null && fromLine != null)
+        throw new IllegalArgumentException("'fromLine' is only supported with --app.processing-mode=partitioned");
+      List<Path> files = file != null ? List.of(Path.of(file)) : inputFiles(path);
+      if (files.size() != 1)
+        throw new IllegalArgumentException("'" + path + "' names several input files; use --app.processing-mode=partitioned");
+      Path input = files.get(0); // a directory or glob matching one file names that file
+      Compression compression = Compression.of(input);
+      if (compression != Compression.NONE)
+        return new BufferedLineReader(input, compression, props.getDecompressThreads(),
+            props.getProcessingMode() != ProcessingMode.MULTI_THREADED);
+      boolean multiThreaded = file == null && props.getProcessingMode() == ProcessingMode.MULTI_THREADED;
+      if (multiThreaded && props.isOrdered())
+        return new BufferedLineReader(input, Compression.NONE, 1, false);
+      if (multiThreaded && props.getReaderMode() != ReaderMode.FOLLOW)
+        return new ClaimingLineReader(input, props.getClaimBlockBytes());
+      long from = start != null ? start : 0L, to = end != null ? end : -1L;
+      return switch (props.getReaderMode()) {
+        // readLine() cannot start mid-file, so byte-range partitions are mapped instead
+        case BUFFERED -> from == 0 && to < 0 ? new BufferedLineReader(input) : new MappedLineReader(input, from, to);
+        case MAPPED -> new MappedLineReader(input, from, to);
+        case READ_AHEAD -> new ReadAheadLineReader(input, from, to, props.getReadAheadDepth(), props.getReadAheadBufferBytes());
+        case FOLLOW -> new FollowLineReader(input, props.getFollowIdleTimeoutMillis(), props.getFollowMaxItems(),
+            props.getFollowPollMaxMillis(), !multiThreaded);
+      };
+    }
+    /**
+     * A single file is split into line-aligned byte ranges; a directory or glob into one partition per file.
+     * A followed file keeps growing, so it is never split. The optional job parameter 'fromLine' skips
+     * the lines before it (0-based), found through the line index when there is one; it needs a single
+     * file that is not followed.
      */
     @Bean
     @StepScope
-    public ItemReader<String> fileReader(@Value("#{jobParameters['path']}") String path) {
-      return new ItemReader<>() {
-        BufferedReader br;
-        String next;
-        private void init() throws IOException {
-          if (br == null) br = Files.newBufferedReader(Path.of(path));
-        }
-        @Override public String read() throws Exception {
-          init();
-          next = br.readLine();
-          if (next == null) { br.close(); return null; }
-          return next;
+    public Partitioner inputPartitioner(@Value("#{jobParameters['path']}") String path,
+                                        @Value("#{jobParameters['fromLine']}") Long fromLine,
+                                        AppProps props) throws IOException {
+      if (!Files.isRegularFile(Path.of(path)) || props.getReaderMode() == ReaderMode.FOLLOW) {
+        if (fromLine != null) throw new IllegalArgumentException("'fromLine' needs a single input file that is not followed");
+        return new FilePartitioner(inputFiles(path));
+      }
+      return new LinePartitioner(Path.of(path), fromLine != null ? fromLine : 0L);
+    }
+    /** Writes a sidecar line index for each uncompressed input file whose index is missing or stale. */
+    @Bean
+    @JobScope
+    @ConditionalOnProperty(value = "app.line-index", havingValue = "true", matchIfMissing = false)
+    public Tasklet lineIndexTasklet(@Value("#{jobParameters['path']}") String path, AppProps props) {
+      return (contribution, chunkContext) -> {
+        for (Path file : inputFiles(path)) {
+          if (Compression.of(file) != Compression.NONE || LineIndex.load(file) != null) continue;
+          try {
+            LineIndex.build(file, props.getLineIndexInterval());
+          } catch (IOException e) { // the index only saves work later; a read-only input dir is not an error
+            LoggerFactory.getLogger("index").warn("Cannot write line index for {}: {}", file, e.toString());
+          }
         }
+        return RepeatStatus.FINISHED;
       };
     }
     @Bean
-    public SourceProvider prodSourceProvider(@Qualifier("fileReader") ItemReader<String> r) {
-      return () -> r;
+    public SourceProvider prodSourceProvider(@Qualifier("fileReader") ItemReader<Line> r,
+                                             @Qualifier("inputPartitioner") Partitioner p) {
+      return new SourceProvider() {
+        @Override public ItemReader<Line> reader() { return r; }
+        @Override public Partitioner partitioner() { return p; }
+      };
     }
   }
 
-  /* ========================= Tasklets ========================= */
-  /** Example tasklet that validates required params and logs startup info. */
-  @Bean
-  @JobScope
-  public Tasklet validateParamsTasklet(@Value("#{jobParameters['name']}") String nameParam,
-                                       GreetingService greeter) {
-    return (contribution, chunkContext) -> {
-      if (nameParam == null || nameParam.isBlank())
-        throw new JobParametersInvalidException("Missing required job parameter 'name'");
-      String greet = greeter.greet(nameParam);
-      LoggerFactory.getLogger("validate").info("{} (at {})", greet, LocalDateTime.now());
-      return RepeatStatus.FINISHED;
-    };
+  /**
+   * Logs lines and MB/s (lines/s when bytes is unknown, i.e. negative) once a reader is exhausted,
+   * so reader modes and builds can be compared run against run.
+   */
+  static void logThroughput(String mode, Object source, long lines, long bytes, long startNanos) {
+    long nanos = Math.max(1, System.nanoTime() - startNanos);
+    if (bytes < 0) {
+      LoggerFactory.getLogger("reader").info("{}: read {} lines from {} in {} ms ({} lines/s)",
+          mode, lines, source, nanos / 1_000_000, String.format(Locale.ROOT, "%.0f", lines * 1e9 / nanos));
+      return;
+    }
+    LoggerFactory.getLogger("reader").info("{}: read {} lines, {} bytes from {} in {} ms ({} MB/s)",
+        mode, lines, bytes, source, nanos / 1_000_000, String.format(Locale.ROOT, "%.1f", bytes * 1e3 / nanos));
   }
 
-  /** Optional post-processing tasklet, can be toggled via property */
-  @Bean
-  @ConditionalOnProperty(value = "app.enable-second-step", havingValue = "true", matchIfMissing = false)
-  public Tasklet secondTasklet() {
-    return (contribution, chunkContext) -> {
-      LoggerFactory.getLogger("second").info("Second tasklet executed.");
-      return RepeatStatus.FINISHED;
-    };
+  /**
+   * The prod line readers. Being a ChunkListener as well lets a step-scoped proxy of this type
+   * receive chunk callbacks on the chunk thread (used by {@link ClaimingLineReader}).
+   */
+  public interface LineReader extends ItemStreamReader<Line>, ChunkListener {}
+
+  /**
+   * The original reader: one BufferedReader.readLine() (char[] + String) per line, over the plain or
+   * decompressed input. Restartable by line count only: a restart re-reads and skips the committed lines,
+   * so it reads compressed input (which cannot seek) and plain files only with app.reader-mode=buffered.
+   * Synchronized, so a multi-threaded step can share it for input that cannot be claimed by byte range;
+   * once the input has ended, every chunk thread still reading gets null.
+   */
+  public static class BufferedLineReader implements LineReader {
+    private final Path path;
+    private final Compression compression;
+    private final int threads;
+    private final boolean saveState;
+    private BufferedReader br;
+    private boolean eof;
+    private long lines, startNanos;
+    public BufferedLineReader(Path path) { this(path, Compression.NONE, 1, true); }
+    public BufferedLineReader(Path path, Compression compression, int threads, boolean saveState) {
+      this.path = path; this.compression = compression; this.threads = threads; this.saveState = saveState;
+    }
+    @Override public synchronized void open(ExecutionContext ctx) {
+      try {
+        br = compression == Compression.NONE ? Files.newBufferedReader(path)
+            : new BufferedReader(new InputStreamReader(compression.open(path, threads), StandardCharsets.UTF_8.newDecoder()), 1 << 16);
+        eof = false;
+        startNanos = System.nanoTime();
+        long skip = saveState ? ctx.getLong("fileReader.line", 0L) : 0L;
+        while (lines < skip && br.readLine() != null) lines++;
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot open " + path, e);
+      }
+    }
+    @Override public synchronized Line read() throws Exception {
+      if (eof) return null;
+      if (br == null) open(new ExecutionContext());
+      String next = br.readLine();
+      if (next == null) {
+        eof = true;
+        br.close();
+        br = null;
+        logThroughput(compression == Compression.NONE ? "buffered" : "buffered " + compression.name().toLowerCase(Locale.ROOT),
+            path, lines, Files.size(path), startNanos);
+        return null;
+      }
+      lines++;
+      return Line.of(next);
+    }
+    @Override public synchronized void update(ExecutionContext ctx) {
+      if (saveState) ctx.putLong("fileReader.line", lines);
+    }
+    @Override public synchronized void close() {
+      try { if (br != null) br.close(); } catch (IOException e) { throw new ItemStreamException(e); }
+      br = null;
+    }
   }
 
-  /* ========================= Writers ========================= */
-  @Bean
-  public ItemWriter<String> loggingWriter(AppProps props) {
-    Logger wlog = LoggerFactory.getLogger("writer");
-    return items -> {
-      for (String s : items) {
-        if (props.getSleepMillis() > 0) try { Thread.sleep(props.getSleepMillis()); } catch (InterruptedException ignored) {}
-        wlog.info("wrote: {}", s);
+  /**
+   * Reads a file through FileChannel.map: newlines are found directly in the mapped bytes and
+   * only the bytes of a line are copied when it is handed on (as a {@link Line}, decoded on demand).
+   * Line terminators are '\n', '\r' and "\r\n", exactly like BufferedReader.readLine().
+   * With a byte range it reads the lines starting in [start, end); see {@link LinePartitioner}.
+   * Restartable: the byte offset and line number of the next line are saved at every chunk commit
+   * ('fileReader.offset', 'fileReader.line'), and a restart maps the file and continues from there.
+   */
+  public static class MappedLineReader implements LineReader {
+    private final Path path;
+    private final boolean saveState;
+    private MappedFile file;
+    private long start, pos, end, lines, startNanos;
+    public MappedLineReader(Path path) { this(path, true); }
+    public MappedLineReader(Path path, boolean saveState) { this(path, 0L, -1L, saveState); }
+    public MappedLineReader(Path path, long start, long end) { this(path, start, end, true); }
+    /** @param end exclusive end offset, or -1 for end of file */
+    public MappedLineReader(Path path, long start, long end, boolean saveState) {
+      this.path = path; this.start = start; this.pos = start; this.end = end; this.saveState = saveState;
+    }
+    @Override public void open(ExecutionContext ctx) {
+      try {
+        file = new MappedFile(path);
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot map " + path, e);
       }
-    };
+      if (end < 0 || end > file.size) end = file.size;
+      if (saveState && ctx.containsKey("fileReader.offset")) {
+        pos = ctx.getLong("fileReader.offset");
+        lines = ctx.getLong("fileReader.line");
+        if (pos < start || pos > end || file.lineStartAtOrAfter(pos) != pos)
+          throw new ItemStreamException("Saved offset " + pos + " is not a line start in " + path + " (file changed?)");
+        LoggerFactory.getLogger("reader").info("Resuming {} at byte {} (line {})", path, pos, lines);
+        start = pos;
+      }
+      startNanos = System.nanoTime();
+    }
+    @Override public Line read() throws Exception {
+      if (file == null) open(new ExecutionContext());
+      if (pos >= end) {
+        if (file.isOpen()) { file.close(); logThroughput("mapped", path, lines, end - start, startNanos); }
+        return null;
+      }
+      long eol = file.indexOfEol(pos, file.size);
+      long lineEnd = eol < 0 ? file.size : eol;
+      Line line = new Line(file.bytes(pos, lineEnd));
+      pos = eol < 0 ? file.size : file.afterEol(eol);
+      lines++;
+      return line;
+    }
+    @Override public void update(ExecutionContext ctx) {
+      if (saveState) { ctx.putLong("fileReader.offset", pos); ctx.putLong("fileReader.line", lines); }
+    }
+    @Override public void close() {
+      try { if (file != null) file.close(); } catch (IOException e) { throw new ItemStreamException(e); }
+    }
   }
 
-  /* ========================= Job & Steps ========================= */
-  @Bean
-  public Job demoJob(JobRepository repo,
-                     PlatformTransactionManager tm,
-                     Tasklet validateParamsTasklet,
-                     UppercaseProcessor processor,
-                     ItemWriter<String> writer,
-                     ApplicationContext ctx,
-                     AppProps props) {
+  /**
+   * Sequential reader whose disk reads overlap with processing and writing: a dedicated I/O thread
+   * keeps up to 'depth' buffers filled ahead of the chunk thread, which only splits lines out of
+   * buffers that are already in memory and hands emptied ones back. Line semantics, byte ranges and
+   * restart checkpoints ('fileReader.offset', 'fileReader.line') are those of {@link MappedLineReader}.
+   */
+  public static class ReadAheadLineReader implements LineReader {
+    private static final Filled EOF = new Filled(-1, null, null);
+    /** A filled buffer and the file offset of its first byte (or the I/O error that ended reading). */
+    private record Filled(long offset, ByteBuffer buf, IOException error) {}
 
-    // Step 1: tasklet-style validation
-    StepBuilder step1b = new StepBuilder("validateParams", repo);
-    Step step1 = step1b.tasklet(validateParamsTasklet, tm).build();
+    private final Path path;
+    private final int depth, bufferBytes;
+    private BlockingQueue<ByteBuffer> free;
+    private BlockingQueue<Filled> filled;
+    private Thread io;
+    private FileChannel ch;
+    private Filled cur;
+    private long pos, end, lines, startNanos, startPos;
+    private boolean eof;
 
-    // Step 2: chunk-style processing using SourceProvider
-    SourceProvider sourceProvider = ctx.getBean(SourceProvider.class); // resolved per @Profile
-    ItemReader<String> reader = sourceProvider.reader();
-    StepBuilder step2b = new StepBuilder("processData", repo);
-    Step step2 = step2b.<String, String>chunk(3, tm)
-        .reader(reader)
-        .processor(processor)
-        .writer(writer)
-        .faultTolerant()                     // example: fault-tolerance toggles
-        .skip(IllegalStateException.class)
-        .skipLimit(3)
-        .taskExecutor(new SimpleAsyncTaskExecutor("chunk-")) // illustrate async chunks
-        .throttleLimit(2)
-        .build();
+    /** @param end exclusive end offset, or -1 for end of file */
+    public ReadAheadLineReader(Path path, long start, long end, int depth, int bufferBytes) {
+      this.path = path; this.pos = start; this.end = end; this.depth = Math.max(1, depth); this.bufferBytes = bufferBytes;
+    }
 
-    JobBuilder jb = new JobBuilder("demoJob", repo);
-    JobFlowBuilder flow = jb.start(step1).on("COMPLETED").to(step2).from(step1).on("FAILED").fail();
+    @Override public void open(ExecutionContext ctx) {
+      try {
+        ch = FileChannel.open(path, StandardOpenOption.READ);
+        if (end < 0 || end > ch.size()) end = ch.size();
+        if (ctx.containsKey("fileReader.offset")) {
+          pos = ctx.getLong("fileReader.offset");
+          lines = ctx.getLong("fileReader.line");
+          if (pos > end) throw new ItemStreamException("Saved offset " + pos + " is beyond the end of " + path + " (file changed?)");
+          LoggerFactory.getLogger("reader").info("Resuming {} at byte {} (line {})", path, pos, lines);
+        }
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot open " + path, e);
+      }
+      free = new ArrayBlockingQueue<>(depth);
+      filled = new ArrayBlockingQueue<>(depth + 1);
+      for (int i = 0; i < depth; i++) free.add(ByteBuffer.allocate(bufferBytes).order(ByteOrder.nativeOrder()));
+      long from = startPos = pos;
+      startNanos = System.nanoTime();
+      io = new Thread(() -> fillLoop(from), "read-ahead");
+      io.setDaemon(true);
+      io.start();
+    }
 
-    // Optionally add a second tasklet step if bean exists and property enabled
-    if (props.isEnableSecondStep() && ctx.containsBean("secondTasklet")) {
-      Tasklet st = ctx.getBean("secondTasklet", Tasklet.class);
-      Step s3 = new StepBuilder("secondStep", repo).tasklet(st, tm).build();
-      flow = flow.next(s3);
+    /**
+     * I/O thread: fills free buffers in file order up to 'end', an error or interruption. A file that
+     * shrinks below 'end' is an error, since the lines up to 'end' can no longer be read.
+     */
+    private void fillLoop(long offset) {
+      try {
+        while (true) {
+          ByteBuffer buf = free.take();
+          buf.clear();
+          if (buf.remaining() > end - offset) buf.limit((int) (end - offset));
+          long at = offset;
+          boolean shrunk = false;
+          while (buf.hasRemaining() && !shrunk) {
+            int n = ch.read(buf, offset);
+            if (n < 0) shrunk = true;
+            else offset += n;
+          }
+          buf.flip();
+          if (buf.hasRemaining()) filled.put(new Filled(at, buf, null));
+          if (shrunk) throw new EOFException(path + " ended at byte " + offset + " before " + end + " (file changed?)");
+          if (offset >= end) { filled.put(EOF); return; }
+        }
+      } catch (IOException e) {
+        filled.offer(new Filled(offset, null, e));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
     }
 
-    return flow.end().build();
+    /** Moves to the next filled buffer, returning the current one to the I/O thread; false at EOF. */
+    private boolean advance() throws IOException, InterruptedException {
+      if (cur != null) free.add(cur.buf());
+      cur = filled.take();
+      if (cur.error() != null) throw cur.error();
+      if (cur == EOF) { cur = null; eof = true; return false; }
+      return true;
+    }
+
+    @Override public Line read() throws Exception {
+      if (ch == null) open(new ExecutionContext());
+      byte[] partial = null;
+      while (true) {
+        if (pos >= end || eof || ((cur == null || !cur.buf().hasRemaining()) && !advance())) {
+          if (partial != null) { pos = end; lines++; return new Line(partial); }
+          if (ch.isOpen()) { close(); logThroughput("read-ahead", path, lines, pos - startPos, startNanos); }
+          return null;
+        }
+        ByteBuffer b = cur.buf();
+        int from = b.position(), eol = MappedFile.indexOfEol(b, from, b.limit());
+        int to = eol < 0 ? b.limit() : eol;
+        byte[] piece = new byte[to - from];
+        b.get(from, piece);
+        partial = partial == null ? piece : concat(partial, piece);
+        if (eol < 0) { b.position(to); continue; }
+        b.position(eol + 1);
+        if (b.get(eol) == '\r') {
+          if (!b.hasRemaining()) advance();   // "\r\n" may straddle two buffers
+          if (!eof && cur.buf().get(cur.buf().position()) == '\n') cur.buf().position(cur.buf().position() + 1);
+        }
+        pos = eof ? end : cur.offset() + cur.buf().position();
+        lines++;
+        return new Line(partial);
+      }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+      byte[] out = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, out, a.length, b.length);
+      return out;
+    }
+
+    @Override public void update(ExecutionContext ctx) {
+      ctx.putLong("fileReader.offset", pos);
+      ctx.putLong("fileReader.line", lines);
+    }
+
+    @Override public void close() {
+      if (io != null) io.interrupt();
+      try { if (ch != null) ch.close(); } catch (IOException e) { throw new ItemStreamException(e); }
+    }
+  }
+
+  /**
+   * Tail-style reader for a file that keeps growing: it reads lines as they are appended and, once it
+   * has handed out everything available, marks the current chunk complete so it commits right away
+   * instead of waiting for a full chunk. Between checks it waits on a WatchService for the directory
+   * (polling with exponential backoff up to pollMaxMillis). The input ends, and with it the step,
+   * after idleTimeoutMillis without new data or after maxItems lines. At the idle timeout a trailing line
+   * without a terminator is handed out, as readLine() would, and the next read ends the input at once;
+   * the file did not grow since the last check, so the line is complete. A truncated file (copytruncate
+   * rotation) is read again from the start. Restartable via 'fileReader.offset' / 'fileReader.line'.
+   */
+  public static class FollowLineReader implements LineReader {
+    private final Path path;
+    private final long idleTimeoutMillis, maxItems, pollMaxMillis;
+    private final boolean saveState;
+    private FileChannel ch;
+    private WatchService watch;
+    private byte[] buf = new byte[1 << 16];
+    private int head, tail;              // unconsumed bytes; buf[head] is at file offset pos
+    private long pos, lines, emitted, startNanos, startPos;
+    private boolean idle;                // idle timeout reached: the input has ended
+
+    public FollowLineReader(Path path, long idleTimeoutMillis, long maxItems, long pollMaxMillis, boolean saveState) {
+      this.path = path; this.idleTimeoutMillis = idleTimeoutMillis; this.maxItems = maxItems;
+      this.pollMaxMillis = Math.max(1, pollMaxMillis); this.saveState = saveState;
+    }
+
+    @Override public synchronized void open(ExecutionContext ctx) {
+      try {
+        ch = FileChannel.open(path, StandardOpenOption.READ);
+        if (saveState && ctx.containsKey("fileReader.offset")) {
+          pos = Math.min(ctx.getLong("fileReader.offset"), ch.size());
+          lines = ctx.getLong("fileReader.line");
+          LoggerFactory.getLogger("reader").info("Resuming {} at byte {} (line {})", path, pos, lines);
+        }
+        try {
+          watch = path.getFileSystem().newWatchService();
+          path.toAbsolutePath().getParent().register(watch, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException | UnsupportedOperationException e) {
+          watch = null; // plain polling
+        }
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot open " + path, e);
+      }
+      startPos = pos;
+      startNanos = System.nanoTime();
+    }
+
+    @Override public synchronized Line read() throws Exception {
+      if (ch == null) open(new ExecutionContext());
+      if (idle || maxItems > 0 && emitted >= maxItems) return end(null);
+      long idleSince = System.currentTimeMillis(), backoff = 1;
+      while (true) {
+        Line line = nextLine(false);
+        if (line != null) {
+          if (!hasCompleteLine() && ch.size() <= pos + (tail - head))
+            RepeatSynchronizationManager.setCompleteOnly(); // caught up: commit what we have now
+          return line;
+        }
+        if (fill() > 0) { idleSince = System.currentTimeMillis(); backoff = 1; continue; }
+        if (System.currentTimeMillis() - idleSince >= idleTimeoutMillis) {
+          idle = true; // fill() just found nothing new, so an unterminated tail is the last line
+          return end(nextLine(true));
+        }
+        awaitChange(backoff);
+        backoff = Math.min(backoff * 2, pollMaxMillis);
+      }
+    }
+
+    /** Next complete line, or with 'last' whatever is left at end of input; null if there is none yet. */
+    private Line nextLine(boolean last) {
+      int eol = MappedFile.indexOfEol(ByteBuffer.wrap(buf).order(ByteOrder.nativeOrder()), head, tail), next;
+      if (eol >= 0 && buf[eol] == '\r' && eol + 1 == tail && !last) return null; // a '\n' may still follow
+      if (eol >= 0) next = buf[eol] == '\r' && eol + 1 < tail && buf[eol + 1] == '\n' ? eol + 2 : eol + 1;
+      else if (last && tail > head) eol = next = tail;
+      else return null;
+      Line line = new Line(Arrays.copyOfRange(buf, head, eol));
+      pos += next - head;
+      head = next;
+      lines++;
+      emitted++;
+      return line;
+    }
+
+    private boolean hasCompleteLine() {
+      int eol = MappedFile.indexOfEol(ByteBuffer.wrap(buf).order(ByteOrder.nativeOrder()), head, tail);
+      return eol >= 0 && !(buf[eol] == '\r' && eol + 1 == tail);
+    }
+
+    /** Reads whatever has been appended; the number of bytes read. */
+    private int fill() throws IOException {
+      long size = ch.size();
+      if (size < pos + (tail - head)) {
+        LoggerFactory.getLogger("reader").warn("{} was truncated, reading it again from the start", path);
+        pos = 0; head = tail = 0;
+      }
+      if (head > 0) { System.arraycopy(buf, head, buf, 0, tail - head); tail -= head; head = 0; }
+      if (tail == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+      int n = Math.max(0, ch.read(ByteBuffer.wrap(buf, tail, buf.length - tail), pos + tail));
+      tail += n;
+      return n;
+    }
+
+    private void awaitChange(long millis) throws InterruptedException {
+      if (watch == null) { Thread.sleep(millis); return; }
+      WatchKey key = watch.poll(millis, TimeUnit.MILLISECONDS);
+      if (key != null) { key.pollEvents(); key.reset(); }
+    }
+
+    private Line end(Line last) {
+      if (last == null) logThroughput("follow", path, emitted, pos - startPos, startNanos);
+      return last;
+    }
+
+    @Override public synchronized void update(ExecutionContext ctx) {
+      if (saveState) { ctx.putLong("fileReader.offset", pos); ctx.putLong("fileReader.line", lines); }
+    }
+
+    @Override public synchronized void close() {
+      try {
+        if (watch != null) watch.close();
+        if (ch != null) ch.close();
+      } catch (IOException e) {
+        throw new ItemStreamException(e);
+      }
+    }
+  }
+
+  /**
+   * Lock-free reader for the multi-threaded chunk step. A thread claims a whole block of the mapped
+   * file with one AtomicLong.getAndAdd and reads the lines starting in that block with no further
+   * coordination; a line belongs to the block holding its first byte, so none is lost or read twice.
+   * Chunk threads are not reused (SimpleAsyncTaskExecutor), so a block left unfinished when a chunk
+   * ends is parked for the next thread, and a thread finding no work waits for blocks still held by
+   * running chunks before reporting the end of input. Not restartable.
+   */
+  public static class ClaimingLineReader implements LineReader {
+    private final Path path;
+    private final int blockBytes;
+    private final AtomicLong nextBlock = new AtomicLong();
+    private final AtomicInteger held = new AtomicInteger();      // cursors owned by running chunks
+    private final ConcurrentLinkedQueue<long[]> parked = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<long[]> cursor = new ThreadLocal<>(); // {next line start, block end}
+    private final LongAdder lines = new LongAdder();
+    private volatile MappedFile file;
+    private long startNanos;
+    public ClaimingLineReader(Path path, int blockBytes) { this.path = path; this.blockBytes = blockBytes; }
+
+    @Override public synchronized void open(ExecutionContext ctx) {
+      if (file != null) return;
+      try {
+        file = new MappedFile(path);
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot map " + path, e);
+      }
+      startNanos = System.nanoTime();
+    }
+
+    @Override public Line read() throws Exception {
+      if (file == null) open(new ExecutionContext());
+      long[] c = cursor.get();
+      if (c == null || c[0] >= c[1]) {
+        if (c != null) held.decrementAndGet();
+        if ((c = acquire()) == null) { cursor.remove(); return null; }
+        cursor.set(c);
+      }
+      long eol = file.indexOfEol(c[0], file.size);
+      long lineEnd = eol < 0 ? file.size : eol;
+      Line line = new Line(file.bytes(c[0], lineEnd));
+      c[0] = eol < 0 ? file.size : file.afterEol(eol);
+      lines.increment();
+      return line;
+    }
+
+    /** Next cursor with work in it (counted in held), or null once the whole file has been handed out. */
+    private long[] acquire() {
+      for (int idle = 0; ; idle++) {
+        held.incrementAndGet();
+        long[] c = parked.poll();
+        while (c == null) {
+          long from = nextBlock.getAndAdd(blockBytes);
+          if (from >= file.size) break;
+          long to = Math.min(file.size, from + blockBytes);
+          long first = file.lineStartAtOrAfter(from);
+          if (first < to) c = new long[] {first, to};
+        }
+        if (c != null) return c;
+        // nothing left to claim; blocks held by running chunks may still be parked
+        if (held.decrementAndGet() == 0 && parked.isEmpty()) return null;
+        if (idle < 100) Thread.onSpinWait(); else LockSupport.parkNanos(50_000);
+      }
+    }
+
+    @Override public void afterChunk(ChunkContext context) { release(); }
+    @Override public void afterChunkError(ChunkContext context) { release(); }
+
+    private void release() {
+      long[] c = cursor.get();
+      if (c == null) return;
+      cursor.remove();
+      if (c[0] < c[1]) parked.offer(c);   // publish before dropping the hold
+      held.decrementAndGet();
+    }
+
+    @Override public synchronized void close() {
+      try {
+        if (file != null && file.isOpen()) {
+          file.close();
+          logThroughput("claiming", path, lines.sum(), file.size, startNanos);
+        }
+      } catch (IOException e) {
+        throw new ItemStreamException(e);
+      }
+    }
+  }
+
+  /**
+   * Read-only mapping of a whole file as 1 GiB segments, so inputs beyond the 2 GiB
+   * MappedByteBuffer limit are addressed with plain long offsets. Absolute gets only: safe to share.
+   */
+  static final class MappedFile implements Closeable {
+    static final int SHIFT = 30, SEGMENT = 1 << SHIFT;
+    final long size;
+    private final FileChannel ch;
+    private final MappedByteBuffer[] segs;
+
+    MappedFile(Path path) throws IOException {
+      ch = FileChannel.open(path, StandardOpenOption.READ);
+      size = ch.size();
+      segs = new MappedByteBuffer[(int) ((size + SEGMENT - 1) >>> SHIFT)];
+      for (int i = 0; i < segs.length; i++) {
+        long off = (long) i << SHIFT;
+        segs[i] = ch.map(FileChannel.MapMode.READ_ONLY, off, Math.min(SEGMENT, size - off));
+        segs[i].order(ByteOrder.nativeOrder()); // indexOfEol reads longs; no byte swapping on little-endian CPUs
+      }
+    }
+
+    byte get(long pos) { return segs[(int) (pos >>> SHIFT)].get((int) (pos & (SEGMENT - 1))); }
+
+    /** Offset of the first '\n' or '\r' in [from, to), or -1. */
+    long indexOfEol(long from, long to) {
+      while (from < to) {
+        int s = (int) (from >>> SHIFT);
+        long base = (long) s << SHIFT;
+        int end = (int) Math.min(to - base, segs[s].capacity());
+        int i = indexOfEol(segs[s], (int) (from - base), end);
+        if (i >= 0) return base + i;
+        from = base + end;
+      }
+      return -1;
+    }
+
+    private static final long ONES = 0x0101010101010101L, LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long LF = ONES * '\n', CR = ONES * '\r';
+
+    /**
+     * Offset of the first '\n' or '\r' in b[from, to), or -1. SWAR: eight bytes are compared per step
+     * as one long; the byte-by-byte loop only handles the tail. Every line splitter (readers,
+     * partitioner, line index) finds its terminators here.
+     */
+    static int indexOfEol(ByteBuffer b, int from, int to) {
+      boolean bigEndian = b.order() == ByteOrder.BIG_ENDIAN;
+      int i = from;
+      for (; i <= to - Long.BYTES; i += Long.BYTES) {
+        long w = b.getLong(i);
+        long m = zeroBytes(w ^ LF) | zeroBytes(w ^ CR);
+        if (m != 0) return i + (bigEndian ? Long.numberOfLeadingZeros(m) : Long.numberOfTrailingZeros(m)) / 8;
+      }
+      for (; i < to; i++) {
+        byte c = b.get(i);
+        if (c == '\n' || c == '\r') return i;
+      }
+      return -1;
+    }
+
+    /** High bit set in exactly the bytes of x that are zero (no carries between bytes, so no false hits). */
+    private static long zeroBytes(long x) {
+      return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    /** First line start at or after pos (pos itself if a line begins there). */
+    long lineStartAtOrAfter(long pos) {
+      if (pos <= 0) return 0;
+      if (pos >= size) return size;
+      byte prev = get(pos - 1);
+      if (prev == '\n' || (prev == '\r' && get(pos) != '\n')) return pos;
+      long eol = indexOfEol(pos, size);
+      return eol < 0 ? size : afterEol(eol);
+    }
+
+    /** Start of the line after the terminator at eol ("\r\n" counts as one terminator). */
+    long afterEol(long eol) {
+      return get(eol) == '\r' && eol + 1 < size && get(eol + 1) == '\n' ? eol + 2 : eol + 1;
+    }
+
+    /** View of up to max bytes at 'from', cut short at the end of its segment. */
+    ByteBuffer slice(long from, int max) {
+      MappedByteBuffer seg = segs[(int) (from >>> SHIFT)];
+      int off = (int) (from & (SEGMENT - 1));
+      return seg.slice(off, Math.min(max, seg.capacity() - off));
+    }
+
+    /** Copies [from, to) out of the mapping, crossing segment boundaries as needed. */
+    byte[] bytes(long from, long to) {
+      byte[] out = new byte[Math.toIntExact(to - from)];
+      for (int done = 0; done < out.length; ) {
+        long p = from + done;
+        MappedByteBuffer seg = segs[(int) (p >>> SHIFT)];
+        int off = (int) (p & (SEGMENT - 1));
+        int n = Math.min(out.length - done, seg.capacity() - off);
+        seg.get(off, out, done, n);
+        done += n;
+      }
+      return out;
+    }
+
+    boolean isOpen() { return ch.isOpen(); }
+    @Override public void close() throws IOException { ch.close(); }
+  }
+
+  /**
+   * Sidecar index (input file name + ".lidx") of the start offset of every interval-th line, so partition
+   * boundaries, line numbers and seeks need no scan of the input. Layout: magic, version, the input's size
+   * and mtime, interval, line count, offset count, then the offsets as unsigned varint deltas.
+   * An index whose recorded size or mtime no longer match the input is ignored.
+   */
+  static final class LineIndex {
+    static final String SUFFIX = ".lidx";
+    private static final int MAGIC = 0x4C494458, VERSION = 1; // "LIDX"
+    final int interval;
+    final long lines;
+    /** offsets[k] = start of line k * interval */
+    private final long[] offsets;
+
+    private LineIndex(int interval, long lines, long[] offsets) {
+      this.interval = interval; this.lines = lines; this.offsets = offsets;
+    }
+
+    static Path sidecar(Path input) { return input.resolveSibling(input.getFileName() + SUFFIX); }
+
+    /** Scans the input once and writes its index (atomically, via a temp file). */
+    static LineIndex build(Path input, int interval) throws IOException {
+      Logger ilog = LoggerFactory.getLogger("index");
+      long size = Files.size(input), mtime = Files.getLastModifiedTime(input).toMillis();
+      long[] offsets = new long[1024];
+      int count = 0;
+      long lines = 0, pos = 0, step = Math.max(size / 10, 64L << 20), nextReport = step, startNanos = System.nanoTime();
+      try (MappedFile file = new MappedFile(input)) {
+        while (pos < file.size) {
+          if (lines % interval == 0) {
+            if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = pos;
+          }
+          long eol = file.indexOfEol(pos, file.size);
+          pos = eol < 0 ? file.size : file.afterEol(eol);
+          lines++;
+          if (pos >= nextReport && pos < file.size) {
+            ilog.info("Indexing {}: {}% ({} lines)", input, pos * 100 / file.size, lines);
+            nextReport += step;
+          }
+        }
+      }
+      if (count == 0) offsets[count++] = 0; // empty file: line 0 "starts" at its end
+      if (Files.size(input) != size || Files.getLastModifiedTime(input).toMillis() != mtime)
+        throw new IOException(input + " changed while it was being indexed");
+      LineIndex index = new LineIndex(interval, lines, Arrays.copyOf(offsets, count));
+      Path target = sidecar(input), tmp = target.resolveSibling(target.getFileName() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC); out.writeInt(VERSION);
+        out.writeLong(size); out.writeLong(mtime);
+        out.writeInt(interval); out.writeLong(lines); out.writeInt(count);
+        long prev = 0;
+        for (int k = 0; k < count; k++) {
+          long delta = index.offsets[k] - prev;
+          prev = index.offsets[k];
+          for (; (delta & ~0x7FL) != 0; delta >>>= 7) out.write((int) (delta & 0x7F) | 0x80);
+          out.write((int) delta);
+        }
+      }
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      ilog.info("Indexed {}: {} lines, {} offsets in {} ms -> {}", input, lines, count,
+          (System.nanoTime() - startNanos) / 1_000_000, target);
+      return index;
+    }
+
+    /** The input's index, or null if there is none or it is stale or unreadable. */
+    static LineIndex load(Path input) {
+      Path sidecar = sidecar(input);
+      if (!Files.isRegularFile(sidecar)) return null;
+      try {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(sidecar));
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) return null;
+        long size = b.getLong(), mtime = b.getLong();
+        if (size != Files.size(input) || mtime != Files.getLastModifiedTime(input).toMillis()) {
+          LoggerFactory.getLogger("index").info("Ignoring stale line index {}", sidecar);
+          return null;
+        }
+        int interval = b.getInt();
+        long lines = b.getLong();
+        long[] offsets = new long[b.getInt()];
+        long prev = 0;
+        for (int k = 0; k < offsets.length; k++) {
+          long delta = 0;
+          for (int shift = 0; ; shift += 7) {
+            byte v = b.get();
+            delta |= (long) (v & 0x7F) << shift;
+            if (v >= 0) break;
+          }
+          offsets[k] = prev += delta;
+        }
+        return new LineIndex(interval, lines, offsets);
+      } catch (IOException | RuntimeException e) {
+        LoggerFactory.getLogger("index").warn("Ignoring unreadable line index {}: {}", sidecar, e.toString());
+        return null;
+      }
+    }
+
+    /** Start offset of 0-based line 'line' (file.size past the last line): an indexed offset plus a short scan. */
+    long lineStart(MappedFile file, long line) {
+      if (line >= lines) return file.size;
+      int k = (int) (line / interval);
+      long pos = offsets[k];
+      for (long l = (long) k * interval; l < line; l++) pos = file.afterEol(file.indexOfEol(pos, file.size));
+      return pos;
+    }
+
+    /** Index of the last recorded offset at or before pos. */
+    int checkpointAtOrBefore(long pos) {
+      int k = Arrays.binarySearch(offsets, pos);
+      return k >= 0 ? k : Math.max(0, -k - 2);
+    }
+
+    long checkpointOffset(int k) { return offsets[k]; }
+    long checkpointLine(int k) { return (long) k * interval; }
+  }
+
+  /** Input compression, detected from the file's magic bytes rather than its name. */
+  public enum Compression {
+    NONE, GZIP, BZIP2, XZ;
+
+    static Compression of(Path path) throws IOException {
+      byte[] m = new byte[6];
+      int n;
+      try (InputStream in = Files.newInputStream(path)) { n = in.readNBytes(m, 0, m.length); }
+      if (n >= 2 && m[0] == 0x1f && m[1] == (byte) 0x8b) return GZIP;
+      if (n >= 3 && m[0] == 'B' && m[1] == 'Z' && m[2] == 'h') return BZIP2;
+      if (n >= 6 && m[0] == (byte) 0xfd && m[1] == '7' && m[2] == 'z' && m[3] == 'X' && m[4] == 'Z' && m[5] == 0) return XZ;
+      return NONE;
+    }
+
+    /** Decompressed stream over all members/streams of the file. */
+    InputStream open(Path path, int threads) throws IOException {
+      return switch (this) {
+        case NONE -> Files.newInputStream(path);
+        case GZIP -> threads > 1 ? new ParallelGzipInputStream(path, threads) : new GZIPInputStream(Files.newInputStream(path), 1 << 16);
+        case BZIP2 -> new BZip2CompressorInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16), true);
+        case XZ -> new XZCompressorInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16), true);
+      };
+    }
+  }
+
+  /**
+   * Inflates a multi-member gzip file (bgzip/pigz style concatenated members) on several threads.
+   * Each round splits the next window of the mapped file at candidate member headers, inflates the
+   * pieces in parallel and hands their output on in file order. A piece is only used when the piece
+   * before it ended exactly where it starts, so a false header match inside deflate data costs a serial
+   * re-inflate but never corrupts output; members are CRC-checked. A member too large to buffer
+   * (single-member files) switches the rest of the file to a plain GZIPInputStream.
+   */
+  static final class ParallelGzipInputStream extends InputStream {
+    static final int PIECE = 1 << 20, MAX_PIECE_OUTPUT = 64 << 20;
+    static final long BAD_HEADER = -1, CORRUPT = -2, TOO_BIG = -3, CANCELLED = -4;
+
+    private final Path path;
+    private final MappedFile file;
+    private final int threads;
+    private final ExecutorService pool;
+    private final ArrayDeque<Piece> ready = new ArrayDeque<>();
+    private Piece cur;
+    private int curPos;
+    private long pos;
+    private InputStream fallback;
+
+    /** Output of the members starting in [start, limit); 'end' is just after the last good one. */
+    private static final class Piece {
+      final long start, limit;
+      byte[] buf = new byte[PIECE * 4];
+      int n;
+      long end, status;
+      Piece(long start, long limit) { this.start = start; this.limit = limit; }
+    }
+
+    ParallelGzipInputStream(Path path, int threads) throws IOException {
+      this.path = path;
+      this.file = new MappedFile(path);
+      this.threads = threads;
+      AtomicInteger ids = new AtomicInteger();
+      this.pool = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(r, "gunzip-" + ids.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+
+    @Override public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      while (cur == null || curPos == cur.n) {
+        cur = ready.poll();
+        curPos = 0;
+        if (cur == null) {
+          if (fallback != null) return fallback.read(b, off, len); // only once the members before it are read
+          if (!fill()) return -1;
+        }
+      }
+      int n = Math.min(len, cur.n - curPos);
+      System.arraycopy(cur.buf, curPos, b, off, n);
+      curPos += n;
+      return n;
+    }
+
+    /** Inflates the next window in parallel; false at end of input. */
+    private boolean fill() throws IOException {
+      if (pos >= file.size) return false;
+      long windowEnd = Math.min(file.size, pos + (long) threads * PIECE);
+      List<Long> starts = new ArrayList<>(List.of(pos));
+      for (int k = 1; k < threads; k++) {
+        long h = findHeader(Math.max(pos + (long) k * PIECE, starts.get(starts.size() - 1) + 1), windowEnd);
+        if (h < 0) break;
+        starts.add(h);
+      }
+      List<Future<Piece>> futures = new ArrayList<>();
+      for (int i = 0; i < starts.size(); i++) {
+        Piece piece = new Piece(starts.get(i), i + 1 < starts.size() ? starts.get(i + 1) : windowEnd);
+        futures.add(pool.submit(() -> inflate(piece)));
+      }
+      long expect = pos;
+      try {
+        for (Future<Piece> f : futures) {
+          Piece piece;
+          try {
+            piece = f.get();
+          } catch (Exception e) {
+            throw new IOException("gzip worker failed on " + path, e);
+          }
+          if (piece.start != expect) piece = inflate(new Piece(expect, piece.limit)); // chain broken: redo serially
+          if (piece.n > 0) ready.add(piece);
+          expect = piece.end;
+          if (piece.status == CORRUPT) throw new IOException("Corrupt gzip member at offset " + expect + " in " + path);
+          if (piece.status == CANCELLED) throw new InterruptedIOException("Interrupted while inflating " + path);
+          if (piece.status == BAD_HEADER) { expect = file.size; break; } // trailing garbage, as GZIPInputStream
+          if (piece.status == TOO_BIG) {
+            InputStream in = Files.newInputStream(path);
+            in.skipNBytes(expect);
+            fallback = new GZIPInputStream(in, 1 << 16);
+            break;
+          }
+        }
+      } finally {
+        futures.forEach(f -> f.cancel(true)); // pieces after a break are never used: stop inflating them
+      }
+      pos = expect;
+      return true;
+    }
+
+    private long findHeader(long from, long to) {
+      for (long p = from; p + 10 <= to; p++)
+        if (file.get(p) == 0x1f && file.get(p + 1) == (byte) 0x8b && file.get(p + 2) == 8 && (file.get(p + 3) & 0xe0) == 0)
+          return p;
+      return -1;
+    }
+
+    private Piece inflate(Piece piece) {
+      Inflater inflater = new Inflater(true);
+      try {
+        long at = piece.start;
+        piece.status = 0;
+        while (at < piece.limit && at < file.size) {
+          int mark = piece.n;
+          inflater.reset();
+          long end = member(at, piece, inflater);
+          if (end < 0) { piece.n = mark; piece.status = end; break; }
+          at = end;
+        }
+        piece.end = at;
+        return piece;
+      } finally {
+        inflater.end();
+      }
+    }
+
+    /** Inflates the member at 'at' into the piece; the offset after its trailer, or a negative status. */
+    private long member(long at, Piece out, Inflater inflater) {
+      long p = at, size = file.size;
+      if (size - p < 18 || file.get(p) != 0x1f || file.get(p + 1) != (byte) 0x8b || file.get(p + 2) != 8) return BAD_HEADER;
+      int flg = file.get(p + 3) & 0xff;
+      if ((flg & 0xe0) != 0) return BAD_HEADER;
+      p += 10;
+      if ((flg & 4) != 0) p += 2 + ((file.get(p) & 0xff) | (file.get(p + 1) & 0xff) << 8); // FEXTRA
+      for (int bit : new int[] {8, 16})                                                      // FNAME, FCOMMENT
+        if ((flg & bit) != 0) { while (p < size && file.get(p) != 0) p++; p++; }
+      if ((flg & 2) != 0) p += 2;                                                            // FHCRC
+      if (p >= size) return CORRUPT;
+      int outStart = out.n;
+      long in = p;
+      try {
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            if (Thread.currentThread().isInterrupted()) return CANCELLED;
+            if (in >= size) return CORRUPT;
+            ByteBuffer b = file.slice(in, 1 << 16);
+            in += b.remaining();
+            inflater.setInput(b);
+          }
+          if (out.buf.length - out.n < 1 << 16) {
+            if (out.n > MAX_PIECE_OUTPUT) return TOO_BIG;
+            out.buf = Arrays.copyOf(out.buf, out.buf.length * 2);
+          }
+          int n = inflater.inflate(out.buf, out.n, out.buf.length - out.n);
+          if (n == 0 && inflater.needsDictionary()) return CORRUPT;
+          out.n += n;
+        }
+      } catch (DataFormatException e) {
+        return CORRUPT;
+      }
+      long end = p + inflater.getBytesRead();
+      if (end + 8 > size) return CORRUPT;
+      CRC32 crc = new CRC32();
+      crc.update(out.buf, outStart, out.n - outStart);
+      if (crc.getValue() != le32(end) || ((out.n - outStart) & 0xffffffffL) != le32(end + 4)) return CORRUPT;
+      return end + 8;
+    }
+
+    private long le32(long p) {
+      return (file.get(p) & 0xffL) | (file.get(p + 1) & 0xffL) << 8 | (file.get(p + 2) & 0xffL) << 16 | (file.get(p + 3) & 0xffL) << 24;
+    }
+
+    @Override public void close() throws IOException {
+      pool.shutdownNow();
+      file.close();
+      if (fallback != null) fallback.close();
+    }
+  }
+
+  /**
+   * Splits a file into gridSize byte ranges whose boundaries are moved forward to the next line start,
+   * so every line belongs to exactly one partition. Each partition's ExecutionContext carries
+   * 'file', 'start' and 'end' for its worker's reader. Compressed files cannot be split by byte
+   * offset and become a single partition.
+   * With a current {@link LineIndex} the boundaries are indexed line starts instead, and each partition
+   * also gets its 'firstLine' and 'lines' count (for {@link ProgressListener}).
+   */
+  public static class LinePartitioner implements Partitioner {
+    private final Path path;
+    private final long fromLine;
+    public LinePartitioner(Path path) { this(path, 0L); }
+    /** @param fromLine 0-based number of the first line to process */
+    public LinePartitioner(Path path, long fromLine) { this.path = path; this.fromLine = fromLine; }
+    @Override public Map<String, ExecutionContext> partition(int gridSize) {
+      Map<String, ExecutionContext> parts = new LinkedHashMap<>();
+      LineIndex index;
+      try {
+        if (Compression.of(path) != Compression.NONE) {
+          if (fromLine > 0) throw new IllegalArgumentException("'fromLine' needs uncompressed input: " + path);
+          gridSize = 1;
+        }
+        index = LineIndex.load(path);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot partition " + path, e);
+      }
+      try (MappedFile file = new MappedFile(path)) {
+        long start = fromLine <= 0 ? 0 : index != null ? index.lineStart(file, fromLine) : skipLines(file, fromLine);
+        long firstLine = fromLine, from = start;
+        for (int i = 1; i <= gridSize; i++) {
+          long target = from + (file.size - from) / gridSize * i, end, endLine = -1;
+          if (i == gridSize) {
+            end = file.size;
+            if (index != null) endLine = index.lines;
+          } else if (index != null) {
+            int k = index.checkpointAtOrBefore(target);
+            end = Math.max(start, index.checkpointOffset(k));
+            endLine = end == start ? firstLine : index.checkpointLine(k);
+          } else {
+            end = file.lineStartAtOrAfter(target);
+          }
+          if (end <= start && !(i == gridSize && parts.isEmpty())) continue;
+          ExecutionContext ctx = new ExecutionContext();
+          ctx.putString("file", path.toString());
+          ctx.putInt("partition", parts.size());
+          ctx.putLong("start", start);
+          ctx.putLong("end", end);
+          ctx.putLong("size", end - start);
+          if (index != null) {
+            ctx.putLong("firstLine", firstLine);
+            ctx.putLong("lines", Math.max(0, endLine - firstLine));
+          }
+          parts.put(String.format("partition%04d", parts.size()), ctx);
+          start = end;
+          firstLine = endLine;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot partition " + path, e);
+      }
+      return parts;
+    }
+
+    /** Without an index, seeking to a line means counting terminators from the top. */
+    private static long skipLines(MappedFile file, long lines) {
+      long pos = 0;
+      for (long l = 0; l < lines && pos < file.size; l++) {
+        long eol = file.indexOfEol(pos, file.size);
+        pos = eol < 0 ? file.size : file.afterEol(eol);
+      }
+      return pos;
+    }
+  }
+
+  /**
+   * The input files named by a 'path' job parameter, in name order: the file itself, the regular
+   * files directly inside a directory, or the files matching a glob (e.g. /data/in/*.gz, /data/**.txt).
+   * Line index sidecars are never input.
+   */
+  static List<Path> inputFiles(String path) throws IOException {
+    int glob = 0;
+    while (glob < path.length() && "*?[{".indexOf(path.charAt(glob)) < 0) glob++;
+    if (glob == path.length() && !Files.isDirectory(Path.of(path))) return List.of(Path.of(path));
+    List<Path> files;
+    if (glob == path.length()) {
+      try (Stream<Path> s = Files.list(Path.of(path))) {
+        files = s.filter(Files::isRegularFile)
+            .filter(p -> !p.getFileName().toString().startsWith(".") && !p.toString().endsWith(LineIndex.SUFFIX))
+            .sorted()
+            .toList();
+      }
+    } else {
+      int cut = path.lastIndexOf(FileSystems.getDefault().getSeparator(), glob);
+      Path base = Path.of(cut < 0 ? "." : path.substring(0, cut + 1));
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+      try (Stream<Path> s = Files.walk(base)) {
+        files = s.filter(Files::isRegularFile)
+            .filter(p -> matcher.matches(cut < 0 ? base.relativize(p) : p) && !p.toString().endsWith(LineIndex.SUFFIX))
+            .sorted()
+            .toList();
+      }
+    }
+    if (files.isEmpty()) throw new IllegalArgumentException("No input files match '" + path + "'");
+    return files;
+  }
+
+  /**
+   * One partition per input file, named in file-name order. 'size' lets {@link LargestFirstPartitionHandler}
+   * start the biggest files first.
+   */
+  public static class FilePartitioner implements Partitioner {
+    private final List<Path> files;
+    public FilePartitioner(List<Path> files) { this.files = files; }
+    @Override public Map<String, ExecutionContext> partition(int gridSize) {
+      Map<String, ExecutionContext> parts = new LinkedHashMap<>();
+      for (Path file : files) {
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.putString("file", file.toString());
+        ctx.putInt("partition", parts.size());
+        try {
+          ctx.putLong("size", Files.size(file));
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot partition " + file, e);
+        }
+        parts.put(String.format("partition%04d", parts.size()), ctx);
+      }
+      return parts;
+    }
+  }
+
+  /**
+   * Submits partitions largest 'size' first (longest-processing-time-first scheduling), so one huge
+   * file is not started last and left running alone. The executor must cap concurrency at the grid size
+   * so that submission order is start order.
+   */
+  public static class LargestFirstPartitionHandler extends TaskExecutorPartitionHandler {
+    @Override protected Set<StepExecution> doHandle(StepExecution managerStepExecution,
+                                                    Set<StepExecution> partitionStepExecutions) throws Exception {
+      List<StepExecution> bySize = new ArrayList<>(partitionStepExecutions);
+      bySize.sort(Comparator.comparingLong((StepExecution e) -> e.getExecutionContext().getLong("size", 0L)).reversed());
+      return super.doHandle(managerStepExecution, new LinkedHashSet<>(bySize));
+    }
+  }
+
+  /**
+   * Logs each 10% of a worker's partition once its total is known ('lines', set by {@link LinePartitioner}
+   * from the line index). Progress is the committed restart line when the reader saves one.
+   */
+  public static class ProgressListener implements ChunkListener {
+    private final Map<String, Long> reported = new ConcurrentHashMap<>();
+    @Override public void afterChunk(ChunkContext context) {
+      StepExecution step = context.getStepContext().getStepExecution();
+      ExecutionContext ctx = step.getExecutionContext();
+      long total = ctx.getLong("lines", 0L);
+      if (total <= 0) return;
+      long done = ctx.getLong("fileReader.line", step.getReadCount());
+      long decile = Math.min(10, done * 10 / total);
+      Long last = reported.put(step.getStepName(), decile);
+      if (last == null || decile > last)
+        LoggerFactory.getLogger("progress").info("{}: {}% ({} of {} lines, from line {})", step.getStepName(),
+            decile * 10, done, total, ctx.getLong("firstLine", 0L));
+      if (decile == 10) reported.remove(step.getStepName());
+    }
+  }
+
+  /* ========================= Tasklets ========================= */
+  /** Example tasklet that validates required params and logs startup info. */
+  @Bean
+  @JobScope
+  public Tasklet validateParamsTasklet(@Value("#{jobParameters['name']}") String nameParam,
+                                       GreetingService greeter) {
+    return (contribution, chunkContext) -> {
+      if (nameParam == null || nameParam.isBlank())
+        throw new JobParametersInvalidException("Missing required job parameter 'name'");
+      String greet = greeter.greet(nameParam);
+      LoggerFactory.getLogger("validate").info("{} (at {})", greet, LocalDateTime.now());
+      return RepeatStatus.FINISHED;
+    };
+  }
+
+  /** Optional post-processing tasklet, can be toggled via property */
+  @Bean
+  @ConditionalOnProperty(value = "app.enable-second-step", havingValue = "true", matchIfMissing = false)
+  public Tasklet secondTasklet() {
+    return (contribution, chunkContext) -> {
+      LoggerFactory.getLogger("second").info("Second tasklet executed.");
+      return RepeatStatus.FINISHED;
+    };
+  }
+
+  /* ========================= Writers ========================= */
+  @Bean
+  @ConditionalOnProperty(value = "app.sink", havingValue = "log", matchIfMissing = true)
+  public ItemWriter<Line> loggingWriter() {
+    Logger wlog = LoggerFactory.getLogger("writer");
+    return items -> {
+      for (Line s : items) wlog.info("wrote: {}", s); // app.sleep-millis is simulated per chunk by ThrottlingItemWriter
+    };
+  }
+
+  /**
+   * app.sink=file: lines to the file named by job parameter 'output'. Step-scoped, so each run opens
+   * it afresh; declared as a syncable stream writer so the step saves its position and the async sink
+   * can force it through the proxy. A multi-threaded step does
+   * not restart by position, so there the output is rewritten from the start. A partition worker writes
+   * its own part file instead, which mergeOutput joins afterwards.
+   */
+  @Bean
+  @StepScope
+  @ConditionalOnProperty(value = "app.sink", havingValue = "file")
+  public SyncableItemWriter fileWriter(@Value("#{jobParameters['output']}") String output,
+                                           @Value("#{stepExecutionContext['partition']}") Integer partition,
+                                           @Value("#{stepExecution.jobExecution.jobInstance.instanceId}") Long instanceId,
+                                           AppProps props) {
+    if (output == null || output.isBlank())
+      throw new IllegalArgumentException("app.sink=file needs the job parameter 'output'");
+    Path target = partition == null ? Path.of(output) : partFile(Path.of(output), instanceId, partition);
+    boolean saveState = props.getProcessingMode() != ProcessingMode.MULTI_THREADED;
+    if (props.isSinkGzip())
+      return new ParallelGzipFileWriter(target, props.getSinkFlush(), props.getSinkFlushIntervalMillis(),
+          props.getSinkFlushBytes(), props.getSinkBufferBytes(), saveState,
+          props.getSinkGzipLevel(), props.getSinkGzipBlockBytes(), props.getSinkGzipThreads());
+    return new ChannelFileWriter(target, props.getSinkFlush(), props.getSinkFlushIntervalMillis(),
+        props.getSinkFlushBytes(), props.getSinkBufferBytes(), saveState);
+  }
+
+  /**
+   * Part file of one partition: 'output.part-<job instance>-<partition>'. Keyed by job instance, so a
+   * restart finds the parts of the partitions that completed, and parts of another run are never merged.
+   */
+  static Path partFile(Path output, long instanceId, int partition) {
+    return output.resolveSibling(partPrefix(output, instanceId) + String.format(Locale.ROOT, "%05d", partition));
+  }
+
+  private static String partPrefix(Path output, long instanceId) {
+    return output.getFileName() + ".part-" + instanceId + "-";
+  }
+
+  /**
+   * app.sink=file with partitions: joins this job instance's part files, in partition order, into the
+   * 'output' file with FileChannel.transferTo. The bytes are copied by the kernel and never pass through
+   * the heap. The output is forced, then the parts are deleted. The step can be rerun: a part is deleted
+   * only once the output is complete, and a failed delete is only logged.
+   */
+  @Bean
+  @JobScope
+  @ConditionalOnProperty(value = "app.sink", havingValue = "file")
+  public Tasklet mergeOutputTasklet(@Value("#{jobParameters['output']}") String output,
+                                    @Value("#{jobExecution.jobInstance.instanceId}") Long instanceId) {
+    return (contribution, chunkContext) -> {
+      Path out = Path.of(output).toAbsolutePath();
+      String prefix = partPrefix(out, instanceId);
+      List<Path> parts;
+      try (Stream<Path> files = Files.list(out.getParent())) {
+        parts = files.filter(p -> p.getFileName().toString().startsWith(prefix)).sorted().toList();
+      }
+      Logger wlog = LoggerFactory.getLogger("writer");
+      if (parts.isEmpty()) { // never truncate an output the workers may have written directly
+        wlog.warn("merge: no part files '{}*' next to {}, output left as it is", prefix, out);
+        return RepeatStatus.FINISHED;
+      }
+      long t0 = System.nanoTime(), bytes = 0;
+      try (FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        for (Path part : parts) {
+          try (FileChannel source = FileChannel.open(part, StandardOpenOption.READ)) {
+            long size = source.size();
+            for (long done = 0; done < size; ) done += source.transferTo(done, size - done, target);
+            bytes += size;
+          }
+        }
+        target.force(false);
+      }
+      for (Path part : parts) {
+        try {
+          Files.delete(part);
+        } catch (IOException e) {
+          wlog.warn("Cannot delete part file {}: {}", part, e.toString());
+        }
+      }
+      wlog.info("merge: {} parts, {} bytes into {} in {} ms", parts.size(), bytes, out, (System.nanoTime() - t0) / 1_000_000);
+      return RepeatStatus.FINISHED;
+    };
+  }
+
+  /**
+   * A sink writer that can force what it has written to disk. Step-scoped sinks are declared with this type,
+   * so their proxies expose sync() as well; wrappers implement it by passing it on.
+   */
+  public interface SyncableItemWriter extends ItemStreamWriter<Line> {
+    void sync() throws IOException;
+  }
+
+  /**
+   * Holds whole chunks back before they reach the delegate writer. It simulates downstream latency (a fixed
+   * time per chunk plus a time per item) and caps items/s and bytes/s with token buckets shared by all
+   * chunk threads. The wait is a LockSupport.parkNanos deadline, so a virtual chunk thread
+   * (app.executor=virtual) frees its carrier meanwhile. Interrupting the thread ends the wait with an
+   * InterruptedException, which fails the chunk. Time held back is logged when the step closes the writer.
+   * Stream callbacks and sync() are passed on to the delegate.
+   */
+  public static class ThrottlingItemWriter implements SyncableItemWriter {
+    private final ItemWriter<? super Line> delegate;
+    private final long chunkLatencyNanos, itemLatencyNanos;
+    private final TokenBucket items, bytes;
+    private final LongAdder chunks = new LongAdder(), heldNanos = new LongAdder();
+
+    public ThrottlingItemWriter(ItemWriter<? super Line> delegate, long chunkLatencyMillis, long itemLatencyMillis,
+                                long maxItemsPerSecond, long maxBytesPerSecond) {
+      this.delegate = delegate;
+      this.chunkLatencyNanos = TimeUnit.MILLISECONDS.toNanos(chunkLatencyMillis);
+      this.itemLatencyNanos = TimeUnit.MILLISECONDS.toNanos(itemLatencyMillis);
+      this.items = maxItemsPerSecond > 0 ? new TokenBucket(maxItemsPerSecond) : null;
+      this.bytes = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond) : null;
+    }
+
+    @Override public void write(Chunk<? extends Line> chunk) throws Exception {
+      long now = System.nanoTime(), wait = 0;
+      if (items != null) wait = items.reserve(chunk.size(), now);
+      if (bytes != null) {
+        long size = 0;
+        for (Line line : chunk) size += line.bytes().length + 1;
+        wait = Math.max(wait, bytes.reserve(size, now));
+      }
+      wait += chunkLatencyNanos + itemLatencyNanos * chunk.size();
+      parkUntil(now + wait);
+      chunks.increment();
+      heldNanos.add(wait);
+      delegate.write(chunk);
+    }
+
+    /** Parks until the deadline; unlike a swallowed Thread.sleep, an interrupt ends the wait and the chunk. */
+    static void parkUntil(long deadline) throws InterruptedException {
+      for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+        LockSupport.parkNanos(left);
+        if (Thread.interrupted()) throw new InterruptedException("Interrupted while holding back a chunk");
+      }
+    }
+
+    @Override public void sync() throws IOException { if (delegate instanceof SyncableItemWriter w) w.sync(); }
+    @Override public void open(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.open(ctx); }
+    @Override public void update(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.update(ctx); }
+    @Override public void close() {
+      if (delegate instanceof ItemStream s) s.close();
+      LoggerFactory.getLogger("writer").info("throttle: {} chunks held back {} ms in total", chunks.sum(),
+          heldNanos.sum() / 1_000_000);
+    }
+
+    /**
+     * Token bucket holding at most one second's worth of tokens. A reservation may overdraw it: the debt is
+     * the time the caller waits, and later callers queue up behind it, which keeps the long-run rate.
+     */
+    private static final class TokenBucket {
+      private final double perNano;
+      private final long capacity;
+      private double tokens;
+      private long last = System.nanoTime();
+
+      TokenBucket(long perSecond) { this.perNano = perSecond / 1e9; this.capacity = perSecond; this.tokens = perSecond; }
+
+      /** Takes the tokens and returns how long (ns) to wait before using them. */
+      synchronized long reserve(long n, long now) {
+        tokens = Math.min(capacity, tokens + Math.max(0, now - last) * perNano);
+        last = Math.max(last, now);
+        tokens -= n;
+        return tokens >= 0 ? 0 : (long) (-tokens / perNano);
+      }
+    }
+  }
+
+  /**
+   * Writes each chunk, one line plus '\n' per item, by encoding it into a reusable direct ByteBuffer and
+   * handing that to a single FileChannel.write (more only when the chunk overflows the buffer). The flush
+   * policy decides when written bytes are forced to disk; close() always forces. Restartable by byte
+   * position: the position is saved at each commit, and a restart truncates the file back to it, which
+   * drops the output of the chunk that failed. Synchronized, so a multi-threaded step can share it.
+   */
+  public static class ChannelFileWriter implements SyncableItemWriter {
+    private final Path path;
+    private final SinkFlush flush;
+    private final long flushIntervalNanos, flushBytes;
+    private final int bufferBytes;
+    private final boolean saveState;
+    private FileChannel ch;
+    private ByteBuffer buf;
+    private long pos, forcedPos, startPos, lines, forces, lastForceNanos, startNanos;
+
+    public ChannelFileWriter(Path path, SinkFlush flush, long flushIntervalMillis, long flushBytes, int bufferBytes,
+                             boolean saveState) {
+      this.path = path; this.flush = flush; this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+      this.flushBytes = flushBytes; this.bufferBytes = bufferBytes; this.saveState = saveState;
+    }
+
+    @Override public synchronized void open(ExecutionContext ctx) {
+      long from = saveState ? ctx.getLong("fileWriter.position", 0L) : 0L;
+      try {
+        ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (ch.size() < from) // saved at a commit whose bytes were never forced, and lost in a crash
+          throw new ItemStreamException("Output " + path + " is shorter than its checkpoint at byte " + from);
+        ch.truncate(from).position(from);
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot open " + path, e);
+      }
+      if (from > 0) LoggerFactory.getLogger("writer").info("Resuming {} at byte {}", path, from);
+      buf = ByteBuffer.allocateDirect(bufferBytes);
+      pos = forcedPos = startPos = from;
+      lines = forces = 0;
+      lastForceNanos = startNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void write(Chunk<? extends Line> chunk) throws IOException {
+      if (ch == null) open(new ExecutionContext());
+      encode(chunk);
+      drain();
+      lines += chunk.size();
+      boolean force = switch (flush) {
+        case CHUNK -> true;
+        case TIME -> System.nanoTime() - lastForceNanos >= flushIntervalNanos;
+        case SIZE -> pos - forcedPos >= flushBytes;
+      };
+      if (force) force();
+    }
+
+    /** Puts the chunk's bytes into the buffer, draining it to the channel whenever it fills up. */
+    protected void encode(Chunk<? extends Line> chunk) throws IOException {
+      for (Line line : chunk) {
+        byte[] b = line.bytes();
+        if (buf.remaining() <= b.length) drain();
+        if (buf.remaining() > b.length) buf.put(b);
+        else { // longer than the whole buffer: write it as is
+          ByteBuffer big = ByteBuffer.wrap(b);
+          while (big.hasRemaining()) pos += ch.write(big);
+        }
+        buf.put((byte) '\n');
+      }
+    }
+
+    /** Puts encoded bytes into the buffer like encode() does; more than fits in the whole buffer is written as is. */
+    protected final void put(ByteBuffer bytes) throws IOException {
+      if (buf.remaining() < bytes.remaining()) drain();
+      if (buf.remaining() >= bytes.remaining()) buf.put(bytes);
+      else while (bytes.hasRemaining()) pos += ch.write(bytes);
+    }
+
+    private void drain() throws IOException {
+      buf.flip();
+      while (buf.hasRemaining()) pos += ch.write(buf);
+      buf.clear();
+    }
+
+    /** Forces what has been written so far, whatever the flush policy. */
+    @Override public synchronized void sync() throws IOException {
+      if (ch != null && pos > forcedPos) force();
+    }
+
+    private void force() throws IOException {
+      ch.force(false);
+      forcedPos = pos;
+      lastForceNanos = System.nanoTime();
+      forces++;
+    }
+
+    @Override public synchronized void update(ExecutionContext ctx) {
+      if (saveState) ctx.putLong("fileWriter.position", pos);
+    }
+
+    @Override public synchronized void close() {
+      if (ch == null) return;
+      try {
+        if (pos > forcedPos) force();
+        ch.close();
+      } catch (IOException e) {
+        throw new ItemStreamException("Cannot close " + path, e);
+      } finally {
+        ch = null;
+        buf = null;
+      }
+      long nanos = Math.max(1, System.nanoTime() - startNanos);
+      LoggerFactory.getLogger("writer").info("file: wrote {} lines, {} bytes to {} in {} ms ({} MB/s), {} forces",
+          lines, pos - startPos, path, nanos / 1_000_000, String.format(Locale.ROOT, "%.1f", (pos - startPos) * 1e3 / nanos), forces);
+    }
+  }
+
+
+  /**
+   * FILE sink with app.sink-gzip=true: compresses output the way pigz does. A chunk's lines are cut into
+   * blocks of blockBytes, each compressed on a pool thread into a complete gzip member (header, raw deflate,
+   * CRC-32 and length). The members are written in order, so the file is a valid multi-member gzip stream
+   * that gunzip and {@link ParallelGzipInputStream} read. At most two blocks per thread are in flight.
+   * Blocks are independent (no dictionary carried over), which costs a little ratio for small blocks. Every
+   * write() ends on a member boundary, so restart by position works as for the plain file. Members never
+   * span chunks: small chunks give small members, so use large chunks, or app.sink-async=true, which merges
+   * many chunks into one write. Partition part files are gzip files of their own, and the merge
+   * concatenates them into one valid gzip file.
+   */
+  public static class ParallelGzipFileWriter extends ChannelFileWriter {
+    private final int level, blockBytes, threads;
+    /** each pool thread's Deflater; its native zlib stream is ended when the thread exits */
+    private final ThreadLocal<Deflater> deflater = new ThreadLocal<>();
+    private ExecutorService pool;
+    private long blocks, rawBytes;
+
+    public ParallelGzipFileWriter(Path path, SinkFlush flush, long flushIntervalMillis, long flushBytes, int bufferBytes,
+                                  boolean saveState, int level, int blockBytes, int threads) {
+      super(path, flush, flushIntervalMillis, flushBytes, bufferBytes, saveState);
+      this.level = level; this.blockBytes = blockBytes; this.threads = threads;
+    }
+
+    @Override public synchronized void open(ExecutionContext ctx) {
+      super.open(ctx);
+      AtomicInteger ids = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(() -> {
+          try {
+            r.run();
+          } finally { // the pool shut down
+            Deflater d = deflater.get();
+            if (d != null) d.end();
+          }
+        }, "gzip-" + ids.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+      blocks = rawBytes = 0;
+    }
+
+    @Override protected void encode(Chunk<? extends Line> chunk) throws IOException {
+      ArrayDeque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+      try {
+        byte[] block = new byte[blockBytes];
+        int n = 0;
+        for (Line line : chunk) {
+          byte[] b = line.bytes();
+          if (n > 0 && n + b.length + 1 > block.length) {
+            submit(inFlight, block, n);
+            block = new byte[blockBytes];
+            n = 0;
+          }
+          if (b.length + 1 > block.length) block = new byte[b.length + 1]; // a line longer than a block gets its own
+          System.arraycopy(b, 0, block, n, b.length);
+          n += b.length;
+          block[n++] = '\n';
+        }
+        if (n > 0) submit(inFlight, block, n);
+        while (!inFlight.isEmpty()) put(await(inFlight.poll()));
+      } finally {
+        inFlight.forEach(f -> f.cancel(true)); // after a failure
+      }
+    }
+
+    private void submit(ArrayDeque<Future<ByteBuffer>> inFlight, byte[] block, int n) throws IOException {
+      if (inFlight.size() >= 2 * threads) put(await(inFlight.poll())); // bounds the blocks held in memory
+      inFlight.add(pool.submit(() -> member(block, n)));
+      blocks++;
+      rawBytes += n;
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> member) throws IOException {
+      try {
+        return member.get();
+      } catch (ExecutionException e) {
+        throw new IOException("Compressing a gzip block failed", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while compressing");
+      }
+    }
+
+    /** One gzip member (RFC 1952) holding data[0, n): fixed 10-byte header, raw deflate, CRC-32 and ISIZE. */
+    private ByteBuffer member(byte[] data, int n) {
+      Deflater d = deflater.get();
+      if (d == null) deflater.set(d = new Deflater(level, true)); // raw deflate, we write the gzip framing
+      d.reset();
+      d.setInput(data, 0, n);
+      d.finish();
+      byte[] out = new byte[n + (n >> 3) + 64];
+      out[0] = 0x1f; out[1] = (byte) 0x8b; out[2] = 8; out[9] = (byte) 0xff; // deflate, no flags, no mtime, OS unknown
+      int len = 10;
+      while (!d.finished()) {
+        if (len == out.length) out = Arrays.copyOf(out, out.length * 2);
+        len += d.deflate(out, len, out.length - len);
+      }
+      if (out.length - len < 8) out = Arrays.copyOf(out, len + 8);
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, n);
+      ByteBuffer member = ByteBuffer.wrap(out, 0, len + 8).order(ByteOrder.LITTLE_ENDIAN);
+      member.putInt(len, (int) crc.getValue()).putInt(len + 4, n);
+      return member;
+    }
+
+    @Override public synchronized void close() {
+      if (pool == null) return;
+      try {
+        super.close();
+      } finally {
+        pool.shutdownNow();
+        pool = null;
+      }
+      LoggerFactory.getLogger("writer").info("gzip: {} bytes in {} blocks, level {}, {} threads", rawBytes, blocks, level, threads);
+    }
+  }
+
+  /**
+   * Moves writing off the chunk threads: write() claims the next slot of a preallocated ring with one atomic
+   * increment (so any number of chunk threads may produce), copies the chunk into the slot's reusable list,
+   * and wakes the I/O thread.
+   * The I/O thread drains every published slot in order and hands them to the delegate as one large chunk,
+   * so concurrent chunks share a write and, at SYNCED, one force (group commit). A full ring makes producers
+   * wait. The durability level decides what write() waits for: nothing more (QUEUED), the delegate write
+   * (WRITTEN), or that plus {@link SyncableItemWriter#sync()} (SYNCED; WRITTEN for sinks without it).
+   * Restarts stay correct: when the step checkpoints, update() first waits until this thread's chunks are
+   * at the durability level (WRITTEN at least) and only then lets the delegate save its position. So with
+   * QUEUED the wait moves to the checkpoint, unless the step is not restartable (multi-threaded), where
+   * chunk threads never wait. close() drains the ring. A delegate failure is rethrown to every producer.
+   */
+  public static class AsyncRingWriter implements ItemStreamWriter<Line> {
+    private static final class Slot { final List<Line> items = new ArrayList<>(); }
+    private final ItemWriter<? super Line> delegate;
+    private final Durability durability;
+    private final boolean restartable;
+    private final Slot[] ring;
+    private final int mask;
+    /** sequence number published in each slot; -1 while free */
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+    private final ThreadLocal<long[]> lastSeq = ThreadLocal.withInitial(() -> new long[] { -1 });
+    private final LongAdder waitNanos = new LongAdder();
+    /** all slots below this sequence are written (and synced at SYNCED) and free again; never reset */
+    private volatile long written;
+    private volatile boolean closing;
+    private volatile Throwable failure;
+    private Thread io;
+    private long opened, batches;
+
+    public AsyncRingWriter(ItemWriter<? super Line> delegate, Durability durability, int slots, boolean restartable) {
+      this.delegate = delegate; this.durability = durability; this.restartable = restartable;
+      int size = Integer.highestOneBit(Math.max(2, slots) * 2 - 1);
+      this.ring = new Slot[size];
+      for (int i = 0; i < size; i++) ring[i] = new Slot();
+      this.mask = size - 1;
+      this.published = new AtomicLongArray(size);
+      Gauge.builder("writer.ring.used", this, w -> w.claimed.get() - w.written)
+          .description("chunks in the async writer's ring, queued or being written").register(Metrics.globalRegistry);
+    }
+
+    @Override public void open(ExecutionContext ctx) {
+      if (delegate instanceof ItemStream s) s.open(ctx);
+      // sequences go on from the last run, so a chunk thread's last sequence from then is already written
+      for (int i = 0; i < ring.length; i++) {
+        published.set(i, -1);
+        ring[i].items.clear(); // left over by a failed run
+      }
+      claimed.set(written);
+      opened = written;
+      batches = 0;
+      closing = false;
+      failure = null;
+      // the I/O thread writes to the step-scoped sink, so it needs the step context of the thread opening it
+      StepContext step = StepSynchronizationManager.getContext();
+      io = Thread.ofPlatform().name("async-writer").daemon()
+          .start(step == null ? this::drainLoop : PipelinedTasklet.inStep(step.getStepExecution(), this::drainLoop));
+    }
+
+    @Override public void write(Chunk<? extends Line> chunk) throws Exception {
+      if (chunk.isEmpty()) return;
+      long seq = claimed.getAndIncrement();
+      // wrap point: wait for the slot to be free; not interruptible, as the claimed slot must be published
+      if (seq - written >= ring.length) await(seq - ring.length, false);
+      ring[(int) seq & mask].items.addAll(chunk.getItems());
+      published.set((int) seq & mask, seq);
+      LockSupport.unpark(io);
+      lastSeq.get()[0] = seq;
+      if (durability != Durability.QUEUED) await(seq, true);
+    }
+
+    /** Waits until the chunk with this sequence number is written; rethrows a failure of the I/O thread. */
+    private void await(long seq, boolean interruptible) throws InterruptedException {
+      if (written > seq && failure == null) return;
+      long t0 = System.nanoTime();
+      lock.lock();
+      try {
+        while (written <= seq) {
+          if (failure != null) throw new ItemStreamException("Asynchronous write failed", failure);
+          if (interruptible) progress.await();
+          else progress.awaitUninterruptibly();
+        }
+      } finally {
+        lock.unlock();
+        waitNanos.add(System.nanoTime() - t0);
+      }
+    }
+
+    /** I/O thread: takes all published slots, in sequence order, as one write. */
+    private void drainLoop() {
+      List<Line> batch = new ArrayList<>();
+      long next = written;
+      try {
+        while (true) {
+          long end = next;
+          while (end - next < ring.length && published.get((int) end & mask) == end) batch.addAll(ring[(int) end++ & mask].items);
+          if (end == next) {
+            if (closing && claimed.get() == next) return;
+            LockSupport.parkNanos(this, 1_000_000);
+            continue;
+          }
+          delegate.write(new Chunk<>(batch));
+          if (durability == Durability.SYNCED && delegate instanceof SyncableItemWriter sink) sink.sync();
+          batch.clear();
+          for (long s = next; s < end; s++) {
+            ring[(int) s & mask].items.clear();
+            published.set((int) s & mask, -1);
+          }
+          batches++;
+          next = end;
+          signal(end);
+        }
+      } catch (Throwable e) {
+        failure = e;
+        signal(next);
+      }
+    }
+
+    private void signal(long end) {
+      lock.lock();
+      try {
+        written = end;
+        progress.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override public void update(ExecutionContext ctx) {
+      if (restartable) {
+        try {
+          await(lastSeq.get()[0], true); // the checkpoint must not cover lines that are only queued
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ItemStreamException("Interrupted while waiting for queued chunks", e);
+        }
+      }
+      if (delegate instanceof ItemStream s) s.update(ctx);
+    }
+
+    @Override public void close() {
+      closing = true;
+      LockSupport.unpark(io);
+      try {
+        io.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (delegate instanceof ItemStream s) s.close();
+      long chunks = written - opened;
+      LoggerFactory.getLogger("writer").info("async: {} chunks in {} writes ({} chunks per write, durability {}), "
+              + "chunk threads waited {} ms", chunks, batches, String.format(Locale.ROOT, "%.1f", (double) chunks / Math.max(1, batches)),
+          durability, waitNanos.sum() / 1_000_000);
+      if (failure != null) throw new ItemStreamException("Asynchronous write failed", failure);
+    }
+  }
+
+  /* ========================= Executors ========================= */
+  /** Runs the chunks of the multi-threaded processData step; closed (and summarised) with the context. */
+  @Bean
+  public InstrumentedTaskExecutor chunkExecutor(AppProps props) {
+    return new InstrumentedTaskExecutor("chunk", props.getExecutor(), props.getExecutorThreads(),
+        props.getExecutorQueueCapacity());
+  }
+
+  /**
+   * A TaskExecutor built per {@link ExecutorKind}:
+   *  - SIMPLE: a new platform thread per task (SimpleAsyncTaskExecutor), at most 'threads' at once
+   *  - VIRTUAL: a new virtual thread per task
+   *  - BOUNDED: 'threads' pooled platform threads with a bounded queue; when it is full the submitting
+   *    thread runs the task itself, which throttles submission
+   *  - FORK_JOIN: a work-stealing pool of 'threads' workers
+   * Every task is counted on submit, start and end, so the queued (submitted, not started) and active
+   * task counts are published as gauges (executor.queued, executor.active, tagged with the name) and
+   * summarised in the log, with the mean wait to start, when the executor is closed.
+   */
+  public static class InstrumentedTaskExecutor implements TaskExecutor, AutoCloseable {
+    private final String name;
+    private final ExecutorKind kind;
+    private final int threads;
+    private final Executor executor;
+    private final AtomicInteger queued = new AtomicInteger(), active = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger(), maxActive = new AtomicInteger();
+    private final LongAdder tasks = new LongAdder(), waitNanos = new LongAdder();
+
+    public InstrumentedTaskExecutor(String name, ExecutorKind kind, int threads, int queueCapacity) {
+      this.name = name; this.kind = kind; this.threads = threads;
+      this.executor = switch (kind) {
+        case SIMPLE -> {
+          SimpleAsyncTaskExecutor simple = new SimpleAsyncTaskExecutor(name + "-");
+          simple.setConcurrencyLimit(threads);
+          yield simple;
+        }
+        case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        case BOUNDED -> new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().name(name + "-", 0).factory(), new ThreadPoolExecutor.CallerRunsPolicy());
+        case FORK_JOIN -> new ForkJoinPool(threads, pool -> {
+          ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+          worker.setName(name + "-" + worker.getPoolIndex());
+          return worker;
+        }, null, true);
+      };
+      Gauge.builder("executor.queued", queued, AtomicInteger::get).tag("name", name)
+          .description("tasks submitted but not yet started").register(Metrics.globalRegistry);
+      Gauge.builder("executor.active", active, AtomicInteger::get).tag("name", name)
+          .description("tasks running").register(Metrics.globalRegistry);
+    }
+
+    @Override public void execute(Runnable task) {
+      long submitted = System.nanoTime();
+      maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+      Runnable counted = () -> {
+        queued.decrementAndGet();
+        waitNanos.add(System.nanoTime() - submitted);
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+          task.run();
+        } finally {
+          active.decrementAndGet();
+          tasks.increment();
+        }
+      };
+      try {
+        executor.execute(counted);
+      } catch (RuntimeException e) {
+        queued.decrementAndGet();
+        throw e;
+      }
+    }
+
+    public int getQueued() { return queued.get(); }
+    public int getActive() { return active.get(); }
+
+    @Override public void close() throws Exception {
+      if (executor instanceof AutoCloseable closeable) closeable.close(); // waits for running tasks
+      long n = tasks.sum();
+      if (n > 0)
+        log.info("{} executor ({}, {} threads): {} tasks, mean wait to start {} ms, max queued {}, max active {}",
+            name, kind, threads, n, String.format(Locale.ROOT, "%.2f", waitNanos.sum() / 1e6 / n),
+            maxQueued.get(), maxActive.get());
+    }
+  }
+
+  /**
+   * Adaptive (AIMD) limit on the chunks running at once, in front of a TaskExecutor (one task = one chunk).
+   * It starts at the minimum and adds one after 'limit' consecutive chunks finish within the latency SLO.
+   * It multiplies the limit by the backoff factor when a chunk is slower than the SLO or fails. After a
+   * decrease, the chunks already running may not trigger another one, so a burst counts once; a failed
+   * chunk counts once too, not again for its latency.
+   * execute() blocks the submitting thread while the limit is reached. The limit and in-flight count are
+   * gauges (concurrency.limit, concurrency.in-flight); changes are logged and counted
+   * (concurrency.limit.changes, tagged by direction and reason).
+   */
+  public static class AimdConcurrencyLimiter implements TaskExecutor, ChunkListener {
+    private final TaskExecutor delegate;
+    private final int min, max;
+    private final long sloNanos;
+    private final double backoff;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition belowLimit = lock.newCondition();
+    private final Counter increased, decreasedSlow, decreasedFailed;
+    /** set on the chunk thread by afterChunkError, so completed() does not back off for that chunk again */
+    private final ThreadLocal<Boolean> errorReported = new ThreadLocal<>();
+    private volatile int limit;
+    private volatile int inFlight;
+    /** good chunks since the last change; completions to ignore after a decrease */
+    private int good, cooldown;
+
+    public AimdConcurrencyLimiter(TaskExecutor delegate, int min, int max, long sloMillis, double backoff) {
+      this.delegate = delegate; this.min = Math.min(min, max); this.max = max; this.limit = this.min;
+      this.sloNanos = TimeUnit.MILLISECONDS.toNanos(sloMillis); this.backoff = backoff;
+      Gauge.builder("concurrency.limit", this, AimdConcurrencyLimiter::getLimit)
+          .description("chunks allowed to run at once").register(Metrics.globalRegistry);
+      Gauge.builder("concurrency.in-flight", this, AimdConcurrencyLimiter::getInFlight)
+          .description("chunks running").register(Metrics.globalRegistry);
+      increased = limitChanges("increase", "within-slo");
+      decreasedSlow = limitChanges("decrease", "slow");
+      decreasedFailed = limitChanges("decrease", "failed");
+    }
+
+    private static Counter limitChanges(String direction, String reason) {
+      return Counter.builder("concurrency.limit.changes").tag("direction", direction).tag("reason", reason)
+          .description("changes of the concurrency limit").register(Metrics.globalRegistry);
+    }
+
+    @Override public void execute(Runnable task) {
+      lock.lock();
+      try {
+        while (inFlight >= limit) belowLimit.awaitUninterruptibly();
+        inFlight++;
+      } finally {
+        lock.unlock();
+      }
+      try {
+        delegate.execute(() -> {
+          long start = System.nanoTime();
+          boolean failed = true;
+          try {
+            task.run();
+            failed = false;
+          } finally {
+            boolean reported = errorReported.get() != null;
+            errorReported.remove();
+            completed(System.nanoTime() - start, failed, reported);
+          }
+        });
+      } catch (RuntimeException e) {
+        lock.lock();
+        try { inFlight--; belowLimit.signalAll(); } finally { lock.unlock(); }
+        throw e;
+      }
+    }
+
+    /** @param reported the chunk's failure already went through afterChunkError */
+    private void completed(long nanos, boolean failed, boolean reported) {
+      lock.lock();
+      try {
+        inFlight--;
+        if (cooldown > 0) cooldown--;
+        if (reported) {
+          good = 0;
+        } else if (failed) {
+          decrease(decreasedFailed, "task failed");
+        } else if (nanos > sloNanos) {
+          decrease(decreasedSlow, "chunk took " + nanos / 1_000_000 + " ms");
+        } else if (++good >= limit && limit < max) {
+          setLimit(limit + 1, increased, good + " chunks within SLO");
+        }
+        belowLimit.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** The step swallows chunk exceptions before the task ends, so failures are reported here. */
+    @Override public void afterChunkError(ChunkContext context) {
+      errorReported.set(Boolean.TRUE);
+      lock.lock();
+      try { decrease(decreasedFailed, "chunk failed"); } finally { lock.unlock(); }
+    }
+
+    private void decrease(Counter changes, String reason) {
+      good = 0;
+      if (cooldown > 0) return;
+      setLimit(Math.max(min, (int) (limit * backoff)), changes, reason);
+      cooldown = inFlight;
+    }
+
+    private void setLimit(int newLimit, Counter changes, String reason) {
+      good = 0;
+      if (newLimit == limit) return;
+      changes.increment();
+      LoggerFactory.getLogger("concurrency").info("Concurrency limit {} -> {} ({})", limit, newLimit, reason);
+      limit = newLimit;
+    }
+
+    public int getLimit() { return limit; }
+    public int getInFlight() { return inFlight; }
+  }
+
+  /* ========================= Ordered output ========================= */
+  /**
+   * Numbers lines in the order they are read (Line.seq) for {@link ReorderingItemWriter}. Reads are
+   * synchronized, so concurrent chunk threads draw distinct, gap-free numbers; stream and chunk callbacks
+   * go to the delegate.
+   */
+  public static class SequencingLineReader implements LineReader {
+    private final ItemReader<Line> delegate;
+    private long next;
+    public SequencingLineReader(ItemReader<Line> delegate) { this.delegate = delegate; }
+    @Override public synchronized Line read() throws Exception {
+      Line line = delegate.read();
+      if (line != null) line.seq = next++;
+      return line;
+    }
+    @Override public void open(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.open(ctx); }
+    @Override public void update(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.update(ctx); }
+    @Override public void close() { if (delegate instanceof ItemStream s) s.close(); }
+    @Override public void beforeChunk(ChunkContext c) { if (delegate instanceof ChunkListener l) l.beforeChunk(c); }
+    @Override public void afterChunk(ChunkContext c) { if (delegate instanceof ChunkListener l) l.afterChunk(c); }
+    @Override public void afterChunkError(ChunkContext c) { if (delegate instanceof ChunkListener l) l.afterChunkError(c); }
+  }
+
+  /** Carries each line's sequence number over to the processor's result; a filtered line leaves a hole. */
+  public static class SequencePreservingProcessor implements ItemProcessor<Line, Line> {
+    private final ItemProcessor<Line, Line> delegate;
+    private final ReorderingItemWriter reorder;
+    public SequencePreservingProcessor(ItemProcessor<Line, Line> delegate, ReorderingItemWriter reorder) {
+      this.delegate = delegate; this.reorder = reorder;
+    }
+    @Override public Line process(Line item) throws Exception {
+      Line out = delegate.process(item);
+      if (out == null) reorder.hole(item.seq);
+      else out.seq = item.seq;
+      return out;
+    }
+  }
+
+  /**
+   * Bounded reorder buffer in front of a writer: chunks arrive in any order, lines leave in Line.seq order.
+   * A chunk's lines are buffered, and the contiguous run from the oldest unwritten line onwards is written
+   * by whichever chunk thread completes it (in that thread's transaction). Lines more than 'capacity'
+   * ahead of the oldest unwritten one wait, which bounds memory. The oldest is always within the window,
+   * so the thread holding it is never the one waiting. Filtered and skipped lines leave holes that the
+   * run passes over. Duplicates, e.g. from a chunk rescan, are ignored. A failed delegate write is not
+   * skippable, since the run holds other chunks' lines too.
+   * Head-of-line blocking is measured as the time lines wait in the buffer and the time writers wait for
+   * the window: the reorder.buffered gauge plus a summary logged after the step. Stream callbacks are
+   * passed on to the delegate.
+   * A failed chunk's lines may never arrive (a non-skippable failure), so while a chunk that failed has not
+   * been completed by its retry or scan, writers buffer past the window instead of waiting for it forever.
+   * After a fatal failure no new chunks start, so the chunks still in flight bound that overflow.
+   */
+  public static class ReorderingItemWriter implements ItemStreamWriter<Line>, SkipListener<Line, Line>,
+      ChunkListener, StepExecutionListener {
+    private static final Line HOLE = Line.of("");
+    private record Pending(Line line, long since) {}
+    private final ItemWriter<? super Line> delegate;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+    /** failed chunks not yet completed; by identity, as ChunkContext equality follows its attributes */
+    private final Set<ChunkContext> failedChunks = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long next, written, waitNanos, maxWaitNanos, blockedNanos;
+    private int maxBuffered;
+
+    public ReorderingItemWriter(ItemWriter<? super Line> delegate, int capacity) {
+      this.delegate = delegate; this.capacity = capacity;
+      Gauge.builder("reorder.buffered", pending, TreeMap::size)
+          .description("lines waiting for an older line before they can be written").register(Metrics.globalRegistry);
+    }
+
+    @Override public void write(Chunk<? extends Line> chunk) throws Exception {
+      List<Line> waiting = new ArrayList<>(chunk.getItems());
+      lock.lock();
+      try {
+        while (true) {
+          long now = System.nanoTime();
+          waiting.removeIf(line -> {
+            if (line.seq < next || pending.containsKey(line.seq)) return true; // already taken
+            if (line.seq >= next + capacity && failedChunks.isEmpty()) return false;
+            pending.put(line.seq, new Pending(line, now));
+            return true;
+          });
+          maxBuffered = Math.max(maxBuffered, pending.size());
+          flush();
+          if (waiting.isEmpty()) return;
+          long blocked = System.nanoTime();
+          advanced.await(100, TimeUnit.MILLISECONDS);
+          blockedNanos += System.nanoTime() - blocked;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Marks a line that will never reach the writer (filtered or skipped), so later lines can pass. */
+    public void hole(long seq) {
+      if (seq < 0) return;
+      lock.lock();
+      try {
+        if (seq >= next && !pending.containsKey(seq)) pending.put(seq, new Pending(HOLE, System.nanoTime()));
+        flush();
+      } catch (Exception e) {
+        throw new ItemStreamException("Ordered write failed", e);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override public void onSkipInProcess(Line item, Throwable t) { hole(item.seq); }
+    @Override public void onSkipInWrite(Line item, Throwable t) { hole(item.seq); }
+
+    @Override public void afterChunkError(ChunkContext context) {
+      lock.lock();
+      try {
+        failedChunks.add(context);
+        advanced.signalAll(); // waiting writers may now buffer past the window
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override public void afterChunk(ChunkContext context) {
+      lock.lock();
+      try {
+        failedChunks.remove(context); // a retried or scanned chunk completes with the same context
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override public void beforeStep(StepExecution stepExecution) {
+      lock.lock();
+      try {
+        failedChunks.clear();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Writes the contiguous run at the head of the buffer; lock held. */
+    private void flush() throws Exception {
+      List<Line> run = new ArrayList<>();
+      long now = System.nanoTime();
+      for (Pending p; (p = pending.get(next)) != null; next++) {
+        pending.remove(next);
+        long wait = now - p.since();
+        waitNanos += wait;
+        maxWaitNanos = Math.max(maxWaitNanos, wait);
+        if (p.line() != HOLE) run.add(p.line());
+      }
+      if (run.isEmpty()) return;
+      advanced.signalAll();
+      try {
+        delegate.write(new Chunk<>(run));
+      } catch (Exception e) { // not one chunk's lines any more: fail rather than let a rescan skip them
+        throw new ItemStreamException("Ordered write of lines " + run.getFirst().seq + ".." + run.getLast().seq + " failed", e);
+      }
+      written += run.size();
+    }
+
+    @Override public void open(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.open(ctx); }
+    @Override public void update(ExecutionContext ctx) { if (delegate instanceof ItemStream s) s.update(ctx); }
+    @Override public void close() { if (delegate instanceof ItemStream s) s.close(); }
+
+    @Override public ExitStatus afterStep(StepExecution stepExecution) {
+      lock.lock();
+      try {
+        if (!pending.isEmpty()) { // a line never arrived: write what is left rather than lose it
+          LoggerFactory.getLogger("reorder").warn("{} lines still buffered after the step, first missing line {}",
+              pending.size(), next);
+          List<Line> rest = new ArrayList<>();
+          pending.values().forEach(p -> { if (p.line() != HOLE) rest.add(p.line()); });
+          next = pending.lastKey() + 1;
+          pending.clear();
+          try { delegate.write(new Chunk<>(rest)); } catch (Exception e) { throw new ItemStreamException(e); }
+          written += rest.size();
+        }
+        LoggerFactory.getLogger("reorder").info("Reorder buffer: {} lines written in order, max buffered {}, "
+                + "mean wait {} ms, max wait {} ms, writers blocked on the window {} ms", written, maxBuffered,
+            String.format(Locale.ROOT, "%.2f", next == 0 ? 0 : waitNanos / 1e6 / next), maxWaitNanos / 1_000_000,
+            blockedNanos / 1_000_000);
+        return null;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /* ========================= Pipelined step ========================= */
+  /**
+   * Tasklet of a step whose stages overlap. A reader thread fills chunks of chunkSize lines into a bounded
+   * queue, a pool of processor threads turns them into output chunks on a second bounded queue, and the
+   * step thread writes one output chunk per execute() call, i.e. per transaction: the commit boundary is
+   * the writer's. With more than one processor thread, chunks are written in completion order.
+   * The reader runs ahead of the commits and saves no state, so the step is not restartable (start limit 1);
+   * lines still queued when it fails were read but never written. Rerun from the start, or partition instead.
+   * Queue depths are published as the pipeline.read-queue / pipeline.write-queue gauges and sampled at every
+   * write. After the step the mean depths and the time each stage waited on a queue are logged: a full queue
+   * means the stage draining it is the bottleneck, two empty queues mean the reader is.
+   */
+  public static class PipelinedTasklet implements Tasklet, StepExecutionListener {
+    /** end of input; compared by identity */
+    private static final List<Line> END = new ArrayList<>(0);
+    private final ItemReader<Line> reader;
+    private final BatchItemProcessor<Line, Line> processor;
+    private final ItemWriter<Line> writer;
+    private final int chunkSize, processThreads, capacity;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger processorsLeft = new AtomicInteger();
+    private final LongAdder reads = new LongAdder(), filtered = new LongAdder();
+    /** reader waiting for room, processors waiting for input and for room, writer waiting for input */
+    private final LongAdder readBlockedNanos = new LongAdder(), processIdleNanos = new LongAdder(),
+        processBlockedNanos = new LongAdder();
+    private volatile BlockingQueue<List<Line>> toProcess, toWrite;
+    private Thread readThread;
+    private ExecutorService processPool;
+    private long writeIdleNanos, reportedReads, reportedFiltered, chunks, readDepthSum, writeDepthSum;
+
+    public PipelinedTasklet(ItemReader<Line> reader, BatchItemProcessor<Line, Line> processor, ItemWriter<Line> writer,
+                            int chunkSize, int processThreads, int capacity) {
+      this.reader = reader; this.processor = processor; this.writer = writer;
+      this.chunkSize = chunkSize; this.processThreads = processThreads; this.capacity = capacity;
+      Gauge.builder("pipeline.read-queue", this, t -> depth(t.toProcess))
+          .description("chunks read and waiting for a processor thread").register(Metrics.globalRegistry);
+      Gauge.builder("pipeline.write-queue", this, t -> depth(t.toWrite))
+          .description("chunks processed and waiting for the writer").register(Metrics.globalRegistry);
+    }
+
+    private static int depth(BlockingQueue<?> queue) { return queue == null ? 0 : queue.size(); }
+
+    /** Opens the reader and starts the reader thread and processor pool, each bound to the step for step scope. */
+    @Override public void beforeStep(StepExecution stepExecution) {
+      toProcess = new ArrayBlockingQueue<>(capacity + 1); // + 1: room for END
+      toWrite = new ArrayBlockingQueue<>(capacity + 1);
+      failure.set(null);
+      processorsLeft.set(processThreads);
+      if (reader instanceof ItemStream stream) stream.open(stepExecution.getExecutionContext());
+      readThread = Thread.ofPlatform().name("pipeline-read").daemon().start(inStep(stepExecution, this::readLoop));
+      processPool = Executors.newFixedThreadPool(processThreads, Thread.ofPlatform().name("pipeline-process-", 0).daemon().factory());
+      for (int i = 0; i < processThreads; i++) processPool.execute(inStep(stepExecution, this::processLoop));
+    }
+
+    /** Runs the loop with the step registered on its thread, as step-scoped beans need. */
+    static Runnable inStep(StepExecution stepExecution, Runnable loop) {
+      return () -> {
+        StepSynchronizationManager.register(stepExecution);
+        try { loop.run(); } finally { StepSynchronizationManager.close(); }
+      };
+    }
+
+    /** Reader thread: cuts the input into chunks of chunkSize lines. */
+    private void readLoop() {
+      try {
+        List<Line> chunk = new ArrayList<>(chunkSize);
+        for (Line line; (line = reader.read()) != null; ) {
+          reads.increment();
+          chunk.add(line);
+          if (chunk.size() == chunkSize) {
+            put(toProcess, chunk, readBlockedNanos);
+            chunk = new ArrayList<>(chunkSize);
+          }
+        }
+        if (!chunk.isEmpty()) put(toProcess, chunk, readBlockedNanos);
+        toProcess.put(END);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        failure.compareAndSet(null, e);
+      }
+    }
+
+    /** Processor thread: processes chunks until END, which it hands on to the next processor thread. */
+    private void processLoop() {
+      try {
+        while (true) {
+          long t0 = System.nanoTime();
+          List<Line> in = toProcess.take();
+          processIdleNanos.add(System.nanoTime() - t0);
+          if (in == END) { toProcess.put(END); break; }
+          Chunk<Line> out = processor.process(new Chunk<>(in));
+          filtered.add(in.size() - out.size());
+          if (!out.isEmpty()) put(toWrite, new ArrayList<>(out.getItems()), processBlockedNanos);
+        }
+        if (processorsLeft.decrementAndGet() == 0) toWrite.put(END);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        failure.compareAndSet(null, e);
+      }
+    }
+
+    private static void put(BlockingQueue<List<Line>> queue, List<Line> chunk, LongAdder blockedNanos) throws InterruptedException {
+      if (queue.offer(chunk)) return;
+      long t0 = System.nanoTime();
+      queue.put(chunk);
+      blockedNanos.add(System.nanoTime() - t0);
+    }
+
+    /** Writes the next processed chunk in this step transaction; FINISHED once every processor is done. */
+    @Override public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+      long t0 = System.nanoTime();
+      List<Line> chunk;
+      while ((chunk = toWrite.poll(100, TimeUnit.MILLISECONDS)) == null) rethrowFailure();
+      writeIdleNanos += System.nanoTime() - t0;
+      rethrowFailure();
+      readDepthSum += toProcess.size();
+      writeDepthSum += toWrite.size();
+      if (chunk != END) {
+        writer.write(new Chunk<>(chunk));
+        contribution.incrementWriteCount(chunk.size());
+        chunks++;
+      }
+      for (long n = reads.sum(); reportedReads < n; reportedReads++) contribution.incrementReadCount();
+      long f = filtered.sum();
+      contribution.incrementFilterCount(f - reportedFiltered);
+      reportedFiltered = f;
+      return RepeatStatus.continueIf(chunk != END);
+    }
+
+    private void rethrowFailure() throws Exception {
+      Throwable t = failure.get();
+      if (t instanceof Exception e) throw e;
+      if (t != null) throw (Error) t;
+    }
+
+    @Override public ExitStatus afterStep(StepExecution stepExecution) {
+      readThread.interrupt();
+      processPool.shutdownNow();
+      try {
+        readThread.join(1000);
+        processPool.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (reader instanceof ItemStream stream) stream.close();
+      long samples = Math.max(1, chunks + 1);
+      double readDepth = (double) readDepthSum / samples, writeDepth = (double) writeDepthSum / samples;
+      String bottleneck = writeDepth >= capacity / 2.0 ? "write" : readDepth >= capacity / 2.0 ? "process" : "read";
+      LoggerFactory.getLogger("pipeline").info("Pipeline: {} chunks written, mean queue depth read {} / write {} of {}; "
+              + "waited: reader {} ms, processors {} ms idle + {} ms blocked, writer {} ms idle; bottleneck: {}",
+          chunks, String.format(Locale.ROOT, "%.1f", readDepth), String.format(Locale.ROOT, "%.1f", writeDepth), capacity,
+          readBlockedNanos.sum() / 1_000_000, processIdleNanos.sum() / 1_000_000, processBlockedNanos.sum() / 1_000_000,
+          writeIdleNanos / 1_000_000, bottleneck);
+      return null;
+    }
+  }
+
+  /* ========================= Job & Steps ========================= */
+  @Bean
+  public Job demoJob(JobRepository repo,
+                     PlatformTransactionManager tm,
+                     Tasklet validateParamsTasklet,
+                     UppercaseProcessor processor,
+                     ItemWriter<Line> writer,
+                     InstrumentedTaskExecutor chunkExecutor,
+                     ApplicationContext ctx,
+                     AppProps props) {
+
+    // Step 1: tasklet-style validation
+    StepBuilder step1b = new StepBuilder("validateParams", repo);
+    Step step1 = step1b.tasklet(validateParamsTasklet, tm).build();
+
+    // Step 2: chunk-style processing using SourceProvider
+    if (props.getSleepMillis() > 0 || props.getSinkLatencyMillis() > 0
+        || props.getSinkMaxItemsPerSecond() > 0 || props.getSinkMaxBytesPerSecond() > 0)
+      writer = new ThrottlingItemWriter(writer, props.getSinkLatencyMillis(), props.getSleepMillis(),
+          props.getSinkMaxItemsPerSecond(), props.getSinkMaxBytesPerSecond());
+    if (props.isSinkAsync()) { // I/O (and any throttling) moves to the ring's I/O thread
+      if (props.getProcessingMode() == ProcessingMode.PARTITIONED)
+        throw new IllegalStateException("app.sink-async needs a single writing step, not app.processing-mode=partitioned");
+      writer = new AsyncRingWriter(writer, props.getSinkDurability(), props.getSinkRingSlots(),
+          props.getProcessingMode() != ProcessingMode.MULTI_THREADED);
+    }
+    SourceProvider sourceProvider = ctx.getBean(SourceProvider.class); // resolved per @Profile
+    ItemReader<Line> reader = sourceProvider.reader();
+    ReorderingItemWriter reorder = null;
+    if (props.isOrdered() && props.getProcessingMode() == ProcessingMode.MULTI_THREADED) {
+      if (props.getProcessorMode() != ProcessorMode.ITEM)
+        throw new IllegalStateException("app.ordered needs app.processor-mode=item: chunk processors drop line numbers");
+      reorder = new ReorderingItemWriter(writer, props.getReorderCapacity());
+    }
+    // CHUNK and ASYNC process in the writer position, so the step then has no item processor
+    ItemProcessor<Line, Line> itemProcessor = props.getProcessorMode() == ProcessorMode.ITEM ? processor : null;
+    ItemWriter<Line> chunkWriter = switch (props.getProcessorMode()) {
+      case ITEM -> writer;
+      case CHUNK -> new BatchProcessingWriter<>(BatchItemProcessor.of(processor), writer);
+      case ASYNC -> new BatchProcessingWriter<>(new AsyncBatchItemProcessor<>(processor, props.getAsyncMaxInFlight()), writer);
+    };
+    CompletionPolicy chunkPolicy = props.isChunkAdaptive()
+        ? new AdaptiveChunkSizePolicy(props.getChunkSize(), props.getChunkMinSize(), props.getChunkMaxSize(),
+            props.getChunkTargetMillis(), props.getChunkMaxHeapRatio())
+        : new SimpleCompletionPolicy(props.getChunkSize());
+    Step step2 = switch (props.getProcessingMode()) {
+      case MULTI_THREADED -> {
+        // the throttle only bounds submission; with an SLO the limiter decides how many chunks actually run
+        AimdConcurrencyLimiter limiter = props.getConcurrencySloMillis() <= 0 ? null
+            : new AimdConcurrencyLimiter(chunkExecutor, props.getConcurrencyMinLimit(), props.getExecutorThreads(),
+                props.getConcurrencySloMillis(), props.getConcurrencyBackoff());
+        SimpleStepBuilder<Line, Line> multi = reorder == null
+            ? chunkStep("processData", repo, tm, chunkPolicy, reader, itemProcessor, chunkWriter)
+            : chunkStep("processData", repo, tm, chunkPolicy, new SequencingLineReader(reader),
+                new SequencePreservingProcessor(processor, reorder), reorder)
+                .listener((SkipListener<Line, Line>) reorder)
+                .listener((StepExecutionListener) reorder)
+                .listener((ChunkListener) reorder);
+        multi.taskExecutor(limiter != null ? limiter : chunkExecutor) // app.executor picks the strategy
+            .throttleLimit(props.getExecutorThreads());
+        if (limiter != null) multi.listener(limiter);
+        yield multi.build();
+      }
+      // one worker step execution (with its own step-scoped reader) per partition
+      case PARTITIONED -> new StepBuilder("processData", repo)
+          .partitioner("processDataWorker", sourceProvider.partitioner())
+          .partitionHandler(partitionHandler(chunkStep("processDataWorker", repo, tm, chunkPolicy, reader, itemProcessor, chunkWriter).build(),
+              props.getGridSize()))
+          .build();
+      // reader thread -> processor pool -> writer on the step thread, one chunk per transaction
+      case PIPELINED -> {
+        BatchItemProcessor<Line, Line> stage = switch (props.getProcessorMode()) {
+          case ITEM -> BatchItemProcessor.perItem(processor);
+          case CHUNK -> BatchItemProcessor.of(processor);
+          case ASYNC -> new AsyncBatchItemProcessor<>(processor, props.getAsyncMaxInFlight());
+        };
+        PipelinedTasklet pipeline = new PipelinedTasklet(reader, stage, writer, props.getChunkSize(),
+            props.getPipelineProcessThreads(), props.getPipelineQueueCapacity());
+        // TaskletStep registers the tasklet as its StepExecutionListener, which starts and stops the stages
+        TaskletStepBuilder pipelined = new StepBuilder("processData", repo).tasklet(pipeline, tm)
+            .startLimit(1); // queued lines are not checkpointed: refuse a restart rather than lose or repeat them
+        if (writer instanceof ItemStream stream) pipelined.stream(stream); // written on the step thread
+        yield pipelined.build();
+      }
+    };
+
+    // Optional pass that writes the sidecar line index the partitioner then plans with
+    Step indexStep = null;
+    if (props.isLineIndex() && ctx.containsBean("lineIndexTasklet"))
+      indexStep = new StepBuilder("buildLineIndex", repo).tasklet(ctx.getBean("lineIndexTasklet", Tasklet.class), tm).build();
+
+    // Partition workers write part files with app.sink=file; this joins them in partition order
+    Step mergeStep = null;
+    if (props.getProcessingMode() == ProcessingMode.PARTITIONED && ctx.containsBean("mergeOutputTasklet"))
+      mergeStep = new StepBuilder("mergeOutput", repo).tasklet(ctx.getBean("mergeOutputTasklet", Tasklet.class), tm).build();
+
+    JobBuilder jb = new JobBuilder("demoJob", repo);
+    JobFlowBuilder flow = indexStep == null
+        ? jb.start(step1).on("COMPLETED").to(step2)
+        : jb.start(step1).on("COMPLETED").to(indexStep).next(step2);
+    if (mergeStep != null) flow = flow.next(mergeStep);
+    flow = flow.from(step1).on("FAILED").fail();
+
+    // Optionally add a second tasklet step if bean exists and property enabled
+    if (props.isEnableSecondStep() && ctx.containsBean("secondTasklet")) {
+      Tasklet st = ctx.getBean("secondTasklet", Tasklet.class);
+      Step s3 = new StepBuilder("secondStep", repo).tasklet(st, tm).build();
+      flow = flow.next(s3);
+    }
+
+    return flow.end().build();
+  }
+
+  /** Runs at most gridSize partitions at once, largest first. */
+  private static TaskExecutorPartitionHandler partitionHandler(Step worker, int gridSize) {
+    SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("partition-");
+    executor.setConcurrencyLimit(gridSize);
+    TaskExecutorPartitionHandler handler = new LargestFirstPartitionHandler();
+    handler.setStep(worker);
+    handler.setTaskExecutor(executor);
+    handler.setGridSize(gridSize);
+    return handler;
+  }
+
+  private static final ProgressListener PROGRESS = new ProgressListener();
+
+  /**
+   * Chunk completion policy whose size is tuned between chunks by hill climbing on throughput. Each
+   * window of WINDOW chunks at one size is measured from the first item read to after the commit. The
+   * size doubles while a window beats the best throughput so far by 5%, and otherwise goes back to the
+   * best size and stays there. It halves (and climbs afresh) when a chunk takes longer than the target
+   * latency or used heap goes over the target ratio. The current size is recorded in the step
+   * ExecutionContext as 'chunk.size'.
+   */
+  public static class AdaptiveChunkSizePolicy extends SimpleCompletionPolicy implements ChunkListener {
+    private static final int WINDOW = 3;
+    private final int min, max;
+    private final long targetNanos;
+    private final double maxHeapRatio;
+    /** start time and item count of the chunk running on this thread */
+    private final ThreadLocal<long[]> current = ThreadLocal.withInitial(() -> new long[2]);
+    private int size, bestSize, windowChunks;
+    private long windowItems, windowNanos;
+    private double bestThroughput;
+
+    public AdaptiveChunkSizePolicy(int initial, int min, int max, long targetMillis, double maxHeapRatio) {
+      super(Math.clamp(initial, min, max));
+      this.min = min; this.max = max; this.size = getChunkSize(); this.bestSize = size;
+      this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis); this.maxHeapRatio = maxHeapRatio;
+    }
+
+    @Override public RepeatContext start(RepeatContext parent) {
+      long[] c = current.get();
+      c[0] = System.nanoTime();
+      c[1] = 0;
+      return super.start(parent);
+    }
+
+    @Override public void update(RepeatContext context) {
+      super.update(context);
+      current.get()[1]++;
+    }
+
+    @Override public void afterChunk(ChunkContext context) {
+      long[] c = current.get();
+      int chosen = resize(c[1], System.nanoTime() - c[0]);
+      context.getStepContext().getStepExecution().getExecutionContext().putInt("chunk.size", chosen);
+    }
+
+    @Override public void afterChunkError(ChunkContext context) {
+      resize(0, Long.MAX_VALUE); // a failed chunk counts as too slow
+    }
+
+    private synchronized int resize(long items, long nanos) {
+      Runtime rt = Runtime.getRuntime();
+      double heap = (double) (rt.totalMemory() - rt.freeMemory()) / rt.maxMemory();
+      if (nanos > targetNanos || heap > maxHeapRatio) {
+        setSize(Math.max(min, size / 2), nanos > targetNanos ? "chunk over latency target" : "heap over target");
+        bestThroughput = 0;
+        bestSize = size;
+        return size;
+      }
+      windowItems += items;
+      windowNanos += nanos;
+      if (++windowChunks < WINDOW) return size;
+      double throughput = windowItems * 1e9 / Math.max(1, windowNanos);
+      windowChunks = 0; windowItems = 0; windowNanos = 0;
+      if (throughput > bestThroughput * 1.05) {
+        bestThroughput = throughput;
+        bestSize = size;
+        if (size < max) setSize((int) Math.min(max, 2L * size), "throughput improving");
+      } else if (size != bestSize) {
+        setSize(bestSize, "throughput no better than at " + bestSize);
+      }
+      return size;
+    }
+
+    private void setSize(int newSize, String reason) {
+      if (newSize == size) return;
+      LoggerFactory.getLogger("chunk").info("Chunk size {} -> {} ({})", size, newSize, reason);
+      size = newSize;
+      windowChunks = 0; windowItems = 0; windowNanos = 0;
+      setChunkSize(newSize);
+    }
+  }
+
+  /** The reader -> processor -> writer chunk step shared by all processing modes. */
+  private static FaultTolerantStepBuilder<Line, Line> chunkStep(String name, JobRepository repo,
+                                                                PlatformTransactionManager tm,
+                                                                CompletionPolicy chunkPolicy,
+                                                                ItemReader<Line> reader,
+                                                                ItemProcessor<Line, Line> processor,
+                                                                ItemWriter<Line> writer) {
+    SimpleStepBuilder<Line, Line> builder = new StepBuilder(name, repo).<Line, Line>chunk(chunkPolicy, tm)
+        .reader(reader)
+        .processor(processor)
+        .writer(writer)
+        .listener(PROGRESS);
+    if (chunkPolicy instanceof ChunkListener tuner) builder.listener(tuner); // adaptive size measures each chunk
+    return builder
+        .faultTolerant()                     // example: fault-tolerance toggles
+        .skip(IllegalStateException.class)
+        .skipLimit(3);
   }
 
   /* ========================= CLI / Usage Helper ========================= */
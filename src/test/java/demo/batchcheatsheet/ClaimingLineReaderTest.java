@@ -0,0 +1,107 @@
+package demo.batchcheatsheet;
+
+import demo.batchcheatsheet.BatchCheatSheetApplication.ClaimingLineReader;
+import demo.batchcheatsheet.BatchCheatSheetApplication.Line;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test for the block-claiming reader: many chunk threads, blocks smaller than some lines, and a
+ * fresh thread per chunk (as SimpleAsyncTaskExecutor runs them), so unfinished blocks are parked and
+ * picked up by other threads. Every line must come out exactly once.
+ */
+class ClaimingLineReaderTest {
+  private static final int THREADS = 16, CHUNK = 7;
+
+  @TempDir Path dir;
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 3, 16, 64, 4096})
+  void everyLineExactlyOnce(int blockBytes) throws Exception {
+    Path input = write(sample(20_000, new Random(blockBytes)));
+    assertThat(readAll(input, blockBytes)).isEqualTo(expected(input));
+  }
+
+  @Test
+  void unterminatedLastLineAndEmptyLines() throws Exception {
+    Path input = dir.resolve("input.txt");
+    Files.writeString(input, "\n\r\nfirst\r\rsecond\n\nlast");
+    assertThat(readAll(input, 2)).isEqualTo(expected(input));
+  }
+
+  /** Lines of 0 to 100 chars, mixed terminators, some non-ASCII; the last one is unterminated. */
+  private static String sample(int lines, Random rnd) {
+    String[] eols = {"\n", "\r\n", "\r"};
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      if (i > 0) sb.append(eols[rnd.nextInt(eols.length)]);
+      sb.append(i).append(rnd.nextInt(10) == 0 ? "é" : "").append("x".repeat(rnd.nextInt(100)));
+    }
+    return sb.toString();
+  }
+
+  private Path write(String text) throws Exception {
+    Path input = dir.resolve("input.txt");
+    Files.writeString(input, text);
+    return input;
+  }
+
+  /** What BufferedReader.readLine returns, as a multiset. */
+  private static Map<String, Integer> expected(Path input) throws Exception {
+    return count(Files.readAllLines(input, StandardCharsets.UTF_8));
+  }
+
+  private static Map<String, Integer> readAll(Path input, int blockBytes) throws Exception {
+    ClaimingLineReader reader = new ClaimingLineReader(input, blockBytes);
+    reader.open(new ExecutionContext());
+    Queue<String> out = new ConcurrentLinkedQueue<>();
+    ExecutorService drivers = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<?>> done = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        done.add(drivers.submit(() -> {
+          // a fresh thread per chunk, until a chunk sees the end of input
+          while (true) {
+            FutureTask<Boolean> chunk = new FutureTask<>(() -> {
+              try {
+                for (int i = 0; i < CHUNK; i++) {
+                  Line line = reader.read();
+                  if (line == null) return false;
+                  out.add(line.toString());
+                }
+                return true;
+              } finally {
+                reader.afterChunk(null);
+              }
+            });
+            Thread thread = new Thread(chunk);
+            thread.start();
+            if (!chunk.get()) return null;
+          }
+        }));
+      }
+      for (Future<?> f : done) f.get(60, TimeUnit.SECONDS);
+    } finally {
+      drivers.shutdownNow();
+      reader.close();
+    }
+    return count(out);
+  }
+
+  private static Map<String, Integer> count(Collection<String> lines) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (String line : lines) counts.merge(line, 1, Integer::sum);
+    return counts;
+  }
+}
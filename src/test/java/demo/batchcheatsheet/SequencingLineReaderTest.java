@@ -0,0 +1,73 @@
+package demo.batchcheatsheet;
+
+import demo.batchcheatsheet.BatchCheatSheetApplication.BufferedLineReader;
+import demo.batchcheatsheet.BatchCheatSheetApplication.Compression;
+import demo.batchcheatsheet.BatchCheatSheetApplication.Line;
+import demo.batchcheatsheet.BatchCheatSheetApplication.ReorderingItemWriter;
+import demo.batchcheatsheet.BatchCheatSheetApplication.SequencingLineReader;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Ordered mode as the multi-threaded step runs it: chunk threads share one sequencing reader over the
+ * buffered reader and hand their chunks to the reorder writer. Threads keep reading after the end of
+ * input (others are still in flight), which must go on returning null; the output is the input, in order.
+ */
+class SequencingLineReaderTest {
+  private static final int THREADS = 8, CHUNK = 5, LINES = 10_000;
+
+  @TempDir Path dir;
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void orderedPastEndOfInput(boolean gzip) throws Exception {
+    List<String> input = new ArrayList<>();
+    for (int i = 0; i < LINES; i++) input.add("line " + i);
+    Path path = dir.resolve(gzip ? "input.txt.gz" : "input.txt");
+    try (OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(path)) : Files.newOutputStream(path)) {
+      out.write((String.join("\n", input) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    SequencingLineReader reader = new SequencingLineReader(
+        new BufferedLineReader(path, Compression.of(path), 1, false));
+    List<String> written = Collections.synchronizedList(new ArrayList<>());
+    ReorderingItemWriter writer = new ReorderingItemWriter(
+        chunk -> chunk.forEach(line -> written.add(line.toString())), 64);
+    reader.open(new ExecutionContext());
+    ExecutorService chunkThreads = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<?>> done = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        done.add(chunkThreads.submit(() -> {
+          while (true) {
+            Chunk<Line> chunk = new Chunk<>();
+            Line line = null;
+            while (chunk.size() < CHUNK && (line = reader.read()) != null) chunk.add(line);
+            writer.write(chunk);
+            if (line == null) break;
+          }
+          for (int i = 0; i < 3; i++) assertThat(reader.read()).isNull();
+          return null;
+        }));
+      }
+      for (Future<?> f : done) f.get(60, TimeUnit.SECONDS);
+    } finally {
+      chunkThreads.shutdownNow();
+      reader.close();
+    }
+    assertThat(written).isEqualTo(input);
+  }
+}
@@ -0,0 +1,104 @@
+package demo.batchcheatsheet;
+
+import demo.batchcheatsheet.BatchCheatSheetApplication.AppProps;
+import demo.batchcheatsheet.BatchCheatSheetApplication.Line;
+import demo.batchcheatsheet.BatchCheatSheetApplication.ScalarUpperCaseKernel;
+import demo.batchcheatsheet.BatchCheatSheetApplication.UppercaseProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.Chunk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-item process(Line) against chunk-level process(Chunk) on the scalar and the SIMD kernel, over
+ * three line-length distributions. One operation is one chunk. The kernel is fixed per JVM, so each
+ * chunk benchmark forks its own: with the jdk.incubator.vector module for the SIMD kernel (needs the
+ * 'vector' profile), without it for the scalar one. Run with: mvn -Pvector,jmh test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UppercaseBenchmark {
+  private static final int CHUNKS = 64;
+
+  /** short: 4-20 chars; mixed: mostly 10-60 with one in five 200-1000; long: 1000-4000 */
+  @Param({"short", "mixed", "long"}) String lengths;
+  @Param("100") int chunkSize;
+
+  private final UppercaseProcessor processor = new UppercaseProcessor();
+  private final List<Chunk<Line>> chunks = new ArrayList<>();
+  private int next;
+
+  @Setup public void setUp() {
+    processor.props = new AppProps();
+    SplittableRandom rnd = new SplittableRandom(42);
+    for (int c = 0; c < CHUNKS; c++) {
+      Chunk<Line> chunk = new Chunk<>();
+      for (int i = 0; i < chunkSize; i++) chunk.add(new Line(text(length(rnd), rnd)));
+      chunks.add(chunk);
+    }
+  }
+
+  private int length(SplittableRandom rnd) {
+    return switch (lengths) {
+      case "short" -> rnd.nextInt(4, 21);
+      case "mixed" -> rnd.nextInt(5) == 0 ? rnd.nextInt(200, 1001) : rnd.nextInt(10, 61);
+      case "long" -> rnd.nextInt(1000, 4001);
+      default -> throw new IllegalArgumentException(lengths);
+    };
+  }
+
+  /** Lowercase words and digits, so every line has letters to change. */
+  private static byte[] text(int n, SplittableRandom rnd) {
+    StringBuilder sb = new StringBuilder(n);
+    while (sb.length() < n) sb.append(rnd.nextInt(8) == 0 ? ' ' : (char) (rnd.nextInt(10) == 0 ? '0' + rnd.nextInt(10) : 'a' + rnd.nextInt(26)));
+    return sb.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private Chunk<Line> nextChunk() {
+    next = (next + 1) % CHUNKS;
+    return chunks.get(next);
+  }
+
+  @Benchmark
+  public void perItem(Blackhole bh) throws Exception {
+    for (Line line : nextChunk()) bh.consume(processor.process(line));
+  }
+
+  @Benchmark
+  public Chunk<Line> chunkScalar(ScalarKernel kernel) throws Exception {
+    return processor.process(nextChunk());
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+  public Chunk<Line> chunkVector(VectorKernel kernel) throws Exception {
+    return processor.process(nextChunk());
+  }
+
+  /** Fails the scalar run if the JVM picked up the SIMD kernel, so results are not mislabelled. */
+  @State(Scope.Benchmark)
+  public static class ScalarKernel {
+    @Setup public void check() {
+      if (!(UppercaseProcessor.KERNEL instanceof ScalarUpperCaseKernel))
+        throw new IllegalStateException("expected the scalar kernel, got " + UppercaseProcessor.KERNEL.getClass().getSimpleName());
+    }
+  }
+
+  /** Fails the SIMD run if the kernel was not compiled in (build with -Pvector). */
+  @State(Scope.Benchmark)
+  public static class VectorKernel {
+    @Setup public void check() {
+      if (UppercaseProcessor.KERNEL instanceof ScalarUpperCaseKernel)
+        throw new IllegalStateException("the SIMD kernel is not available; build with -Pvector");
+    }
+  }
+}